@@ -16,11 +16,15 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Helper class used for loading data from assets.
@@ -28,6 +32,7 @@ import java.util.List;
 public class AssetLoader
 {
 	private static final int THUMBNAIL_SIZE = 1024;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
 	/**
 	 * Loads given image asset, scaling the image down if it is too big to improve performance.
@@ -111,4 +116,52 @@ public class AssetLoader
 			return null;
 		}
 	}
+
+	/**
+	 * Copies the given asset to a file, streaming it through a small buffer. The file is deleted if the copy fails.
+	 * @param context Application context.
+	 * @param path    Path in the assets folder of the file to copy.
+	 * @param file    Destination file, overwritten if it exists.
+	 * @return CRC32 checksum of the copied data, or -1 if the asset could not be copied.
+	 */
+	public static long copyAssetToFile(Context context, String path, File file)
+	{
+		CRC32 checksum = new CRC32();
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+		try
+		{
+			InputStream inputStream = context.getAssets().open(path);
+
+			try
+			{
+				OutputStream outputStream = new FileOutputStream(file);
+
+				try
+				{
+					int count;
+					while ((count = inputStream.read(buffer)) != -1)
+					{
+						checksum.update(buffer, 0, count);
+						outputStream.write(buffer, 0, count);
+					}
+				}
+				finally
+				{
+					outputStream.close();
+				}
+			}
+			finally
+			{
+				inputStream.close();
+			}
+
+			return checksum.getValue();
+		}
+		catch (IOException e)
+		{
+			file.delete();
+			return -1;
+		}
+	}
 }
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "ChangeSet.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 18/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Ids of the rows of an item type that were inserted, updated or deleted. The provider adds the ids to the change
+ * notification uri as query parameters, so observers receiving the uri (ContentObserver.onChange(boolean, Uri), API
+ * 16+) can update only the affected rows. If the affected rows are not known, e.g. after a write with a selection or
+ * when too many rows changed, the notification has no ids and the change set is incomplete.
+ */
+public class ChangeSet
+{
+	public static final int OPERATION_INSERT = 0;
+	public static final int OPERATION_UPDATE = 1;
+	public static final int OPERATION_DELETE = 2;
+
+	// Maximum number of ids in a change set, larger changes are notified without ids as long uris are expensive to
+	// deliver and parse
+	static final int MAX_IDS = 100;
+
+	// Query parameters of the notification uri, each containing a comma separated list of ids
+	private static final String[] QUERY_PARAMETERS = { "inserted", "updated", "deleted" };
+
+	private final Uri mUri;
+
+	// Ids of the changed rows, by operation
+	private final Set<Long>[] mIds;
+	private int mIdCount;
+	private boolean mComplete = true;
+
+	@SuppressWarnings("unchecked")
+	ChangeSet(Uri uri)
+	{
+		mUri = uri;
+		mIds = new Set[] { new LinkedHashSet<Long>(), new LinkedHashSet<Long>(), new LinkedHashSet<Long>() };
+	}
+
+	/**
+	 * Reads the change set from a change notification uri.
+	 * @param uri Uri passed to the content observer, can be null on platforms that don't pass it (before API 16).
+	 * @return The change set, which is incomplete if the uri contains no ids.
+	 */
+	public static ChangeSet parse(Uri uri)
+	{
+		if (uri == null)
+		{
+			ChangeSet changeSet = new ChangeSet(null);
+			changeSet.mComplete = false;
+			return changeSet;
+		}
+
+		ChangeSet changeSet = new ChangeSet(uri.buildUpon().clearQuery().build());
+		boolean hasIds = false;
+
+		for (int operation = 0; operation < QUERY_PARAMETERS.length; operation++)
+		{
+			String ids = uri.getQueryParameter(QUERY_PARAMETERS[operation]);
+
+			if (ids == null)
+			{
+				continue;
+			}
+
+			hasIds = true;
+
+			for (String id : TextUtils.split(ids, ","))
+			{
+				try
+				{
+					changeSet.mIds[operation].add(Long.parseLong(id));
+				}
+				catch (NumberFormatException e)
+				{
+					changeSet.mComplete = false;
+				}
+			}
+		}
+
+		changeSet.mComplete &= hasIds;
+		return changeSet;
+	}
+
+	/**
+	 * Returns the collection uri of the changed item type, or null if it is not known.
+	 */
+	public Uri getUri()
+	{
+		return mUri;
+	}
+
+	/**
+	 * Returns false if the changed rows are not known, in which case all rows have to be reloaded.
+	 */
+	public boolean isComplete()
+	{
+		return mComplete;
+	}
+
+	public Set<Long> getInsertedIds()
+	{
+		return Collections.unmodifiableSet(mIds[OPERATION_INSERT]);
+	}
+
+	public Set<Long> getUpdatedIds()
+	{
+		return Collections.unmodifiableSet(mIds[OPERATION_UPDATE]);
+	}
+
+	public Set<Long> getDeletedIds()
+	{
+		return Collections.unmodifiableSet(mIds[OPERATION_DELETE]);
+	}
+
+	/**
+	 * Adds the rows affected by an operation. Rows that were deleted after being inserted or updated are only
+	 * reported as deleted.
+	 * @param operation One of the OPERATION_ constants.
+	 * @param ids       Ids of the affected rows, or null if they are not known.
+	 */
+	void add(int operation, long[] ids)
+	{
+		if (!mComplete)
+		{
+			return;
+		}
+
+		if (ids == null || mIdCount + ids.length > MAX_IDS)
+		{
+			// Observers have to reload all rows, the ids are no longer needed
+			mComplete = false;
+
+			for (Set<Long> operationIds : mIds)
+			{
+				operationIds.clear();
+			}
+
+			return;
+		}
+
+		for (long id : ids)
+		{
+			if (operation == OPERATION_DELETE)
+			{
+				mIds[OPERATION_INSERT].remove(id);
+				mIds[OPERATION_UPDATE].remove(id);
+			}
+			else if (operation == OPERATION_UPDATE && mIds[OPERATION_INSERT].contains(id))
+			{
+				// Still a new row for the observers
+				continue;
+			}
+
+			mIds[operation].add(id);
+		}
+
+		mIdCount += ids.length;
+	}
+
+	/**
+	 * Builds the notification uri containing the changed ids, or returns the plain collection uri if the change set
+	 * is incomplete.
+	 */
+	Uri toUri()
+	{
+		if (!mComplete)
+		{
+			return mUri;
+		}
+
+		Uri.Builder builder = mUri.buildUpon();
+
+		for (int operation = 0; operation < mIds.length; operation++)
+		{
+			if (!mIds[operation].isEmpty())
+			{
+				builder.appendQueryParameter(QUERY_PARAMETERS[operation], TextUtils.join(",", mIds[operation]));
+			}
+		}
+
+		return builder.build();
+	}
+}
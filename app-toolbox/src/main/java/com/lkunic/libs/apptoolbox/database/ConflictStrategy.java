@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "ConflictStrategy.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 30/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+/**
+ * Describes how an insert handles a row that already exists, so that rows can be synced without querying them first.
+ * The strategy is passed to the provider as a query parameter of the insert uri.
+ */
+public class ConflictStrategy
+{
+	// Values of the conflict query parameter
+	private static final String TYPE_REPLACE = "replace";
+	private static final String TYPE_IGNORE = "ignore";
+	private static final String TYPE_UPDATE = "update";
+
+	private String mType;
+	private String mKeyColumn;
+
+	/**
+	 * Replaces the existing row violating a unique or primary key constraint. The replaced row is deleted, so columns
+	 * missing from the inserted values get their default values.
+	 */
+	public static ConflictStrategy replace()
+	{
+		return create(TYPE_REPLACE, null);
+	}
+
+	/**
+	 * Keeps the existing row violating a unique or primary key constraint and skips the inserted values.
+	 */
+	public static ConflictStrategy ignore()
+	{
+		return create(TYPE_IGNORE, null);
+	}
+
+	/**
+	 * Updates the existing row with the same value of the key column, or inserts the values if there is no such row.
+	 * Columns missing from the inserted values keep their current values. The values have to contain the key column,
+	 * which should be unique and indexed.
+	 * @param keyColumn Column identifying the row, e.g. the id of the item on the server.
+	 */
+	public static ConflictStrategy updateOn(String keyColumn)
+	{
+		if (keyColumn == null)
+		{
+			throw new IllegalArgumentException("Key column can not be null");
+		}
+
+		return create(TYPE_UPDATE, keyColumn);
+	}
+
+	/**
+	 * Reads the strategy from the query parameters of the given uri.
+	 * @return The strategy, or null if the uri does not contain one.
+	 * @throws DatabaseProviderException If the uri contains an unknown strategy.
+	 */
+	static ConflictStrategy fromUri(Uri uri)
+	{
+		String type = uri.getQueryParameter(DbContentProvider.QUERY_PARAMETER_CONFLICT);
+
+		if (type == null)
+		{
+			return null;
+		}
+
+		String keyColumn = uri.getQueryParameter(DbContentProvider.QUERY_PARAMETER_CONFLICT_KEY);
+
+		if (!TYPE_REPLACE.equals(type) && !TYPE_IGNORE.equals(type) && !(TYPE_UPDATE.equals(type) && keyColumn != null))
+		{
+			throw new DatabaseProviderException("Invalid conflict strategy: " + uri.toString());
+		}
+
+		return create(type, keyColumn);
+	}
+
+	private static ConflictStrategy create(String type, String keyColumn)
+	{
+		ConflictStrategy strategy = new ConflictStrategy();
+
+		strategy.mType = type;
+		strategy.mKeyColumn = keyColumn;
+
+		return strategy;
+	}
+
+	/**
+	 * Returns the given uri with this strategy appended as query parameters.
+	 */
+	public Uri appendTo(Uri uri)
+	{
+		Uri.Builder builder = uri.buildUpon().appendQueryParameter(DbContentProvider.QUERY_PARAMETER_CONFLICT, mType);
+
+		if (mKeyColumn != null)
+		{
+			builder.appendQueryParameter(DbContentProvider.QUERY_PARAMETER_CONFLICT_KEY, mKeyColumn);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Returns true if an existing row is replaced.
+	 */
+	boolean isReplace()
+	{
+		return TYPE_REPLACE.equals(mType);
+	}
+
+	/**
+	 * Returns true if an existing row is updated, identified by the key column.
+	 */
+	boolean isUpdate()
+	{
+		return TYPE_UPDATE.equals(mType);
+	}
+
+	/**
+	 * Returns the key column identifying the updated row, or null if the strategy does not update rows.
+	 */
+	String getKeyColumn()
+	{
+		return mKeyColumn;
+	}
+
+	/**
+	 * Returns the conflict clause of the insert statement ("OR REPLACE", "OR IGNORE"), or null if the insert should
+	 * fail on a conflict.
+	 */
+	String getInsertConflictClause()
+	{
+		if (TYPE_REPLACE.equals(mType))
+		{
+			return "OR REPLACE";
+		}
+
+		if (TYPE_IGNORE.equals(mType))
+		{
+			return "OR IGNORE";
+		}
+
+		return null;
+	}
+}
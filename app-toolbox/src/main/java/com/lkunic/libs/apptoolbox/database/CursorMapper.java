@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "CursorMapper.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 07/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads objects from cursor rows. The indices of the mapped columns are resolved once per cursor instead of once per
+ * row, and are passed to {@link #mapRow(Cursor, int[])} so values can be read with the typed cursor getters. A mapper
+ * can be shared between threads mapping different cursors.
+ * @param <T> Type of the mapped objects.
+ */
+public abstract class CursorMapper<T>
+{
+	private final String[] mColumns;
+
+	// Column indices of the last mapped cursor. Replaced as a whole, so a thread never sees the indices of one
+	// cursor paired with another cursor.
+	private volatile ResolvedColumns mResolvedColumns;
+
+	/**
+	 * @param columns Columns read by the mapper. Their indices are passed to mapRow() in the same order.
+	 */
+	protected CursorMapper(String... columns)
+	{
+		mColumns = columns;
+	}
+
+	/**
+	 * Returns the columns read by the mapper, which can be used as the query projection.
+	 */
+	public String[] getColumns()
+	{
+		return mColumns;
+	}
+
+	/**
+	 * Maps the row the cursor is currently positioned at.
+	 */
+	public T map(Cursor cursor)
+	{
+		return mapRow(cursor, getColumnIndices(cursor));
+	}
+
+	/**
+	 * Maps all rows of the cursor. The cursor position is moved to the last row.
+	 */
+	public List<T> mapAll(Cursor cursor)
+	{
+		List<T> items = new ArrayList<>(cursor.getCount());
+		int[] columnIndices = getColumnIndices(cursor);
+
+		cursor.moveToPosition(-1);
+		while (cursor.moveToNext())
+		{
+			items.add(mapRow(cursor, columnIndices));
+		}
+
+		return items;
+	}
+
+	/**
+	 * Returns the indices of the mapped columns in the given cursor, resolving them if the cursor changed.
+	 */
+	private int[] getColumnIndices(Cursor cursor)
+	{
+		ResolvedColumns resolvedColumns = mResolvedColumns;
+
+		if (resolvedColumns == null || resolvedColumns.cursor != cursor)
+		{
+			int[] columnIndices = new int[mColumns.length];
+
+			for (int i = 0; i < mColumns.length; i++)
+			{
+				columnIndices[i] = cursor.getColumnIndex(mColumns[i]);
+			}
+
+			// Threads alternating between cursors resolve the indices again, but always get the ones of their cursor
+			resolvedColumns = new ResolvedColumns(cursor, columnIndices);
+			mResolvedColumns = resolvedColumns;
+		}
+
+		return resolvedColumns.columnIndices;
+	}
+
+	/**
+	 * Implement to create an object from the current cursor row.
+	 * @param cursor        Cursor positioned at the row to map.
+	 * @param columnIndices Cursor indices of the columns passed to the constructor, in the same order. The index is
+	 *                      -1 for columns that are not part of the cursor projection.
+	 */
+	protected abstract T mapRow(Cursor cursor, int[] columnIndices);
+
+	/**
+	 * Column indices resolved for a cursor.
+	 */
+	private static class ResolvedColumns
+	{
+		public final Cursor cursor;
+		public final int[] columnIndices;
+
+		public ResolvedColumns(Cursor cursor, int[] columnIndices)
+		{
+			this.cursor = cursor;
+			this.columnIndices = columnIndices;
+		}
+	}
+}
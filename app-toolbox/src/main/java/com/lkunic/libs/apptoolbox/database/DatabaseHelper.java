@@ -11,9 +11,27 @@
  */
 package com.lkunic.libs.apptoolbox.database;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.AssetLoader;
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Helper class used for managing the database lifecycle.
@@ -23,7 +41,38 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	// List of tables to be created in the database
 	private DatabaseTable[] mTables;
 
+	// Performance settings applied whenever the connection is opened
+	private DatabaseProfile mProfile;
+
+	// Maximum number of idle compiled statements kept by the statement cache
+	private static final int STATEMENT_CACHE_SIZE = 32;
+
+	// Compiled statements reused between database operations
+	private final StatementCache mStatementCache = new StatementCache(STATEMENT_CACHE_SIZE);
+
+	// Connection kept open for the lifetime of the helper, shared by all database operations
+	private SQLiteDatabase mDatabase;
+
+	// Read-only connections used for queries, null if the profile doesn't use a pool
+	private ReaderPool mReaderPool;
+
+	// Header of every SQLite database file, and the offset of the user version (the schema version) in the header
+	private static final byte[] SQLITE_HEADER = "SQLite format 3\u0000".getBytes(Charset.forName("US-ASCII"));
+	private static final int USER_VERSION_OFFSET = 60;
+
+	private final Context mContext;
+	private final int mVersion;
+
+	// Prebuilt database installed from the assets before the database is first opened
+	private String mPrebuiltAssetPath;
+	private long mPrebuiltChecksum = -1;
+
 	public DatabaseHelper(Context context, String name, int version, DatabaseTable[] tables)
+	{
+		this(context, name, version, tables, DatabaseProfile.create());
+	}
+
+	public DatabaseHelper(Context context, String name, int version, DatabaseTable[] tables, DatabaseProfile profile)
 	{
 		super(context, name, null, version);
 
@@ -33,7 +82,42 @@ public class DatabaseHelper extends SQLiteOpenHelper
 					.getName()));
 		}
 
+		if (profile == null)
+		{
+			throw new IllegalArgumentException(String.format("%s - Database profile can not be null", getClass()
+					.getName()));
+		}
+
+		mContext = context;
+		mVersion = version;
 		mTables = tables;
+		mProfile = profile;
+	}
+
+	/**
+	 * Sets a prebuilt database file that is copied from the assets when the database doesn't exist yet, instead of
+	 * creating the tables and inserting the seed data on first launch. The prebuilt database has to be created with
+	 * the same schema and its user version (PRAGMA user_version) set to its schema version. The version can only be
+	 * older than the version of this helper if every table declares its migrations, in which case the database is
+	 * upgraded with them after being copied, as upgrading recreates tables without migrations and would lose the
+	 * prebuilt rows. Has to be set before the database is first opened.
+	 * @param assetPath Path in the assets folder of the database file.
+	 * @param checksum  CRC32 checksum of the database file, or -1 to skip the check.
+	 */
+	public void setPrebuiltDatabase(String assetPath, long checksum)
+	{
+		mPrebuiltAssetPath = assetPath;
+		mPrebuiltChecksum = checksum;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	@Override
+	public void onConfigure(SQLiteDatabase db)
+	{
+		super.onConfigure(db);
+
+		// Configure the connection before the tables are created so that settings like the page size take effect
+		mProfile.configure(db);
 	}
 
 	@Override
@@ -51,15 +135,65 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
 	{
+		// Runs inside the upgrade transaction, so either all steps are applied or none of them are
+		List<Migration> steps = new ArrayList<>();
+
 		for (DatabaseTable table : mTables)
 		{
-			if (table != null)
+			if (table == null)
+			{
+				continue;
+			}
+
+			Migration[] migrations = table.getMigrations();
+
+			if (migrations == null)
 			{
+				// The table can't be migrated, recreate it
 				table.dropTable(db);
+				table.createTable(db);
+				continue;
 			}
+
+			if (!tableExists(db, table.getTableName()))
+			{
+				// The table is new in this version and is created with the current schema, its steps don't apply
+				table.createTable(db);
+				continue;
+			}
+
+			for (Migration migration : migrations)
+			{
+				if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion)
+				{
+					steps.add(migration);
+				}
+			}
+		}
+
+		// Sorting is stable, steps of the same version are applied in table order
+		Collections.sort(steps, new Comparator<Migration>()
+		{
+			@Override
+			public int compare(Migration lhs, Migration rhs)
+			{
+				return lhs.getVersion() < rhs.getVersion() ? -1 : (lhs.getVersion() == rhs.getVersion() ? 0 : 1);
+			}
+		});
+
+		for (Migration step : steps)
+		{
+			step.migrate(db);
 		}
 
-		onCreate(db);
+		// Create new indexes and drop the ones that are no longer declared
+		for (DatabaseTable table : mTables)
+		{
+			if (table != null)
+			{
+				table.updateIndexes(db);
+			}
+		}
 	}
 
 	@Override
@@ -67,7 +201,224 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	{
 		super.onOpen(db);
 
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+		{
+			// Older platforms don't call onConfigure, apply the profile once the database is open
+			mProfile.configure(db);
+		}
+
 		// Enable foreign key support
 		db.execSQL("PRAGMA foreign_keys=ON;");
 	}
+
+	/**
+	 * Returns true if the database contains a table with the given name.
+	 */
+	private static boolean tableExists(SQLiteDatabase db, String tableName)
+	{
+		return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+				new String[] { tableName }) > 0;
+	}
+
+	/**
+	 * Returns the long-lived database connection, opening it on first use. The connection stays open until
+	 * {@link #shutdown()} is called, so its statement and page caches survive between operations.
+	 */
+	public synchronized SQLiteDatabase getDatabase()
+	{
+		if (mDatabase == null || !mDatabase.isOpen())
+		{
+			if (mPrebuiltAssetPath != null)
+			{
+				installPrebuiltDatabase();
+			}
+
+			mDatabase = getWritableDatabase();
+
+			// Opened after the main connection, so the schema is up to date and the database is in WAL mode
+			int readerPoolSize = mProfile.getReaderPoolSize();
+			if (readerPoolSize > 0 && mReaderPool == null)
+			{
+				mReaderPool = new ReaderPool(mDatabase.getPath(), readerPoolSize, mProfile);
+			}
+		}
+
+		return mDatabase;
+	}
+
+	/**
+	 * Closes the database connection. It is reopened the next time {@link #getDatabase()} is called.
+	 */
+	public synchronized void shutdown()
+	{
+		// The cached statements belong to the connection that is being closed
+		mStatementCache.clear();
+
+		if (mReaderPool != null)
+		{
+			mReaderPool.close();
+			mReaderPool = null;
+		}
+
+		mDatabase = null;
+		close();
+	}
+
+	/**
+	 * Copies the prebuilt database from the assets if the database file doesn't exist yet. The asset is copied to a
+	 * temporary file first and only renamed once its checksum and schema version have been checked, so an
+	 * interrupted copy never leaves a broken database behind.
+	 * @throws DatabaseProviderException If the prebuilt database could not be installed.
+	 */
+	private void installPrebuiltDatabase()
+	{
+		File databaseFile = mContext.getDatabasePath(getDatabaseName());
+
+		if (databaseFile.exists())
+		{
+			return;
+		}
+
+		File directory = databaseFile.getParentFile();
+		if (directory != null && !directory.exists() && !directory.mkdirs())
+		{
+			throw new DatabaseProviderException("Could not create the database directory " + directory);
+		}
+
+		File tempFile = new File(databaseFile.getPath() + ".tmp");
+		long checksum = AssetLoader.copyAssetToFile(mContext, mPrebuiltAssetPath, tempFile);
+
+		if (checksum == -1)
+		{
+			throw new DatabaseProviderException("Could not copy the prebuilt database " + mPrebuiltAssetPath);
+		}
+
+		try
+		{
+			if (mPrebuiltChecksum != -1 && checksum != mPrebuiltChecksum)
+			{
+				throw new DatabaseProviderException("Checksum of the prebuilt database " + mPrebuiltAssetPath +
+						" doesn't match");
+			}
+
+			int version = readUserVersion(tempFile);
+
+			// Version 0 would make the helper create the tables again, newer versions can't be downgraded, and older
+			// versions are only upgraded without losing the prebuilt rows if every table can be migrated
+			int minVersion = canMigrateAllTables() ? 1 : mVersion;
+
+			if (version < minVersion || version > mVersion)
+			{
+				throw new DatabaseProviderException("Prebuilt database " + mPrebuiltAssetPath + " has version " +
+						version + ", expected " + (minVersion == mVersion ? mVersion : "1 to " + mVersion));
+			}
+
+			// A journal left behind by an earlier database with the same name would be applied to the new file
+			for (String suffix : new String[] { "-journal", "-wal", "-shm" })
+			{
+				File leftover = new File(databaseFile.getPath() + suffix);
+
+				if (leftover.exists() && !leftover.delete())
+				{
+					throw new DatabaseProviderException("Could not delete " + leftover);
+				}
+			}
+
+			if (!tempFile.renameTo(databaseFile))
+			{
+				throw new DatabaseProviderException("Could not install the prebuilt database " + mPrebuiltAssetPath);
+			}
+		}
+		finally
+		{
+			// Only left behind if the installation failed
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns true if every table declares its migrations, so upgrading the database keeps the rows of all tables.
+	 */
+	private boolean canMigrateAllTables()
+	{
+		for (DatabaseTable table : mTables)
+		{
+			if (table != null && table.getMigrations() == null)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the user version from the header of the database file, without opening the database.
+	 * @throws DatabaseProviderException If the file is not an SQLite database.
+	 */
+	private static int readUserVersion(File file)
+	{
+		ByteBuffer header = ByteBuffer.allocate(USER_VERSION_OFFSET + 4);
+
+		try
+		{
+			FileInputStream inputStream = new FileInputStream(file);
+
+			try
+			{
+				FileChannel channel = inputStream.getChannel();
+
+				while (header.hasRemaining())
+				{
+					if (channel.read(header) == -1)
+					{
+						break;
+					}
+				}
+			}
+			finally
+			{
+				inputStream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseProviderException("Could not read the database header. See inner exception for details.",
+					e);
+		}
+
+		byte[] magic = new byte[SQLITE_HEADER.length];
+		header.flip();
+
+		if (header.remaining() < USER_VERSION_OFFSET + 4)
+		{
+			throw new DatabaseProviderException("Not an SQLite database: " + file);
+		}
+
+		header.get(magic);
+		if (!Arrays.equals(magic, SQLITE_HEADER))
+		{
+			throw new DatabaseProviderException("Not an SQLite database: " + file);
+		}
+
+		// Header values are stored in big-endian order, which is the default byte order of the buffer
+		return header.getInt(USER_VERSION_OFFSET);
+	}
+
+	/**
+	 * Returns the pool of read-only connections, or null if the profile doesn't use one. Only available once the
+	 * database has been opened using {@link #getDatabase()}.
+	 */
+	synchronized ReaderPool getReaderPool()
+	{
+		return mReaderPool;
+	}
+
+	/**
+	 * Returns the cache of compiled statements used with the long-lived connection.
+	 */
+	StatementCache getStatementCache()
+	{
+		return mStatementCache;
+	}
 }
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DatabaseProfile.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 14/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Performance settings applied to the database connection when it is opened. Settings that are not set keep the
+ * SQLite defaults.
+ */
+public class DatabaseProfile
+{
+	public static final String SYNCHRONOUS_OFF = "OFF";
+	public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+	public static final String SYNCHRONOUS_FULL = "FULL";
+
+	public static final String TEMP_STORE_DEFAULT = "DEFAULT";
+	public static final String TEMP_STORE_FILE = "FILE";
+	public static final String TEMP_STORE_MEMORY = "MEMORY";
+
+	private boolean mWriteAheadLogging;
+	private String mSynchronous;
+	private Integer mCacheSize;
+	private Long mMmapSize;
+	private String mTempStore;
+	private Integer mPageSize;
+	private int mReaderPoolSize;
+
+	public static DatabaseProfile create()
+	{
+		return new DatabaseProfile();
+	}
+
+	/**
+	 * Enables write-ahead logging, which lets readers run concurrently with a writer instead of waiting for the
+	 * rollback journal to be released.
+	 */
+	public DatabaseProfile withWriteAheadLogging(boolean enabled)
+	{
+		this.mWriteAheadLogging = enabled;
+		return this;
+	}
+
+	/**
+	 * Sets the synchronous level (one of the SYNCHRONOUS_ constants). NORMAL is safe to use with write-ahead logging.
+	 */
+	public DatabaseProfile withSynchronous(String level)
+	{
+		this.mSynchronous = level;
+		return this;
+	}
+
+	/**
+	 * Sets the page cache size. Positive values are a number of pages, negative values are a size in KiB.
+	 */
+	public DatabaseProfile withCacheSize(int cacheSize)
+	{
+		this.mCacheSize = cacheSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of the database file that are accessed using memory-mapped I/O.
+	 */
+	public DatabaseProfile withMmapSize(long mmapSize)
+	{
+		this.mMmapSize = mmapSize;
+		return this;
+	}
+
+	/**
+	 * Sets where temporary tables and indices are stored (one of the TEMP_STORE_ constants).
+	 */
+	public DatabaseProfile withTempStore(String tempStore)
+	{
+		this.mTempStore = tempStore;
+		return this;
+	}
+
+	/**
+	 * Sets the database page size in bytes. Only takes effect when the database file is created, and only on
+	 * devices that support configuring the connection before the tables are created (API 16+).
+	 */
+	public DatabaseProfile withPageSize(int pageSize)
+	{
+		this.mPageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of read-only connections used for queries, so that queries from different threads run
+	 * in parallel instead of waiting for each other. Only used with write-ahead logging, 0 disables the pool and all
+	 * queries use the main connection (default).
+	 */
+	public DatabaseProfile withReaderPoolSize(int poolSize)
+	{
+		this.mReaderPoolSize = poolSize;
+		return this;
+	}
+
+	public boolean isWriteAheadLoggingEnabled()
+	{
+		return mWriteAheadLogging;
+	}
+
+	/**
+	 * Returns the maximum number of pooled read-only connections, 0 if the pool is not used.
+	 */
+	public int getReaderPoolSize()
+	{
+		return mWriteAheadLogging ? mReaderPoolSize : 0;
+	}
+
+	/**
+	 * Applies the profile to the given database connection. Must be called outside of a transaction.
+	 */
+	void configure(SQLiteDatabase db)
+	{
+		// The page size has to be set before anything is written to the database
+		if (mPageSize != null)
+		{
+			executePragma(db, "page_size=" + mPageSize);
+		}
+
+		if (mWriteAheadLogging)
+		{
+			db.enableWriteAheadLogging();
+		}
+
+		if (mSynchronous != null)
+		{
+			executePragma(db, "synchronous=" + mSynchronous);
+		}
+
+		if (mCacheSize != null)
+		{
+			executePragma(db, "cache_size=" + mCacheSize);
+		}
+
+		if (mMmapSize != null)
+		{
+			executePragma(db, "mmap_size=" + mMmapSize);
+		}
+
+		if (mTempStore != null)
+		{
+			executePragma(db, "temp_store=" + mTempStore);
+		}
+	}
+
+	/**
+	 * Applies the settings affecting reads to a pooled read-only connection. The journal mode and page size are
+	 * properties of the database file and are set by the main connection.
+	 */
+	void configureReader(SQLiteDatabase db)
+	{
+		if (mCacheSize != null)
+		{
+			executePragma(db, "cache_size=" + mCacheSize);
+		}
+
+		if (mMmapSize != null)
+		{
+			executePragma(db, "mmap_size=" + mMmapSize);
+		}
+
+		if (mTempStore != null)
+		{
+			executePragma(db, "temp_store=" + mTempStore);
+		}
+	}
+
+	/**
+	 * Executes the given pragma. Some pragmas return a row, so they can't be executed using execSQL.
+	 */
+	private static void executePragma(SQLiteDatabase db, String pragma)
+	{
+		Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+
+		try
+		{
+			cursor.moveToFirst();
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
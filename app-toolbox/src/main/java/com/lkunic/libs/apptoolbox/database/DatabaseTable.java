@@ -11,8 +11,12 @@
  */
 package com.lkunic.libs.apptoolbox.database;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Template class for creating a database table model.
  */
@@ -25,6 +29,65 @@ public abstract class DatabaseTable
 	public void createTable(SQLiteDatabase db)
 	{
 		db.execSQL(getSqlCreateStatement());
+
+		for (TableIndex index : getIndexes())
+		{
+			db.execSQL(index.buildCreateSql(getTableName()));
+		}
+	}
+
+	/**
+	 * Brings the indexes of the table in line with the declared ones. Declared indexes that are no longer declared
+	 * are dropped, and indexes that are new or whose declaration changed are (re)created. Indexes that were not
+	 * created from a declaration (their name doesn't start with {@link TableIndex#NAME_PREFIX}) are kept.
+	 * @param db Database instance to use when updating the indexes
+	 */
+	public void updateIndexes(SQLiteDatabase db)
+	{
+		// Load the existing declared indexes, automatic indexes (e.g. for UNIQUE constraints) have no SQL
+		Map<String, String> existingIndexes = new HashMap<>();
+		Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ? " +
+				"AND sql IS NOT NULL", new String[] { getTableName() });
+
+		try
+		{
+			while (cursor.moveToNext())
+			{
+				String name = cursor.getString(0);
+
+				if (name.startsWith(TableIndex.NAME_PREFIX))
+				{
+					existingIndexes.put(name, cursor.getString(1));
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		for (TableIndex index : getIndexes())
+		{
+			String sql = index.buildCreateSql(getTableName());
+			String existingSql = existingIndexes.remove(index.getSqlName());
+
+			if (sql.equals(existingSql))
+			{
+				continue;
+			}
+
+			if (existingSql != null)
+			{
+				db.execSQL("DROP INDEX " + index.getSqlName());
+			}
+
+			db.execSQL(sql);
+		}
+
+		for (String name : existingIndexes.keySet())
+		{
+			db.execSQL("DROP INDEX " + name);
+		}
 	}
 
 	/**
@@ -36,6 +99,35 @@ public abstract class DatabaseTable
 		db.execSQL("DROP TABLE IF EXISTS " + getTableName());
 	}
 
+	/**
+	 * Override to provide the steps that migrate this table between database versions. When the database is
+	 * upgraded, the steps with a version above the old one and up to the new one are applied in version order. A
+	 * table added in the new version is created with its current schema instead, without applying the steps. If no
+	 * steps are provided, the table is dropped and recreated on upgrade, which deletes its data.
+	 */
+	protected Migration[] getMigrations()
+	{
+		return null;
+	}
+
+	/**
+	 * Override to declare secondary indexes of this table. They are created with the table and updated whenever
+	 * the database is upgraded.
+	 */
+	protected TableIndex[] getIndexes()
+	{
+		return new TableIndex[0];
+	}
+
+	/**
+	 * Returns the name of the column used to select single items by id. Override if the table doesn't use the
+	 * default "_id" column.
+	 */
+	protected String getIdColumn()
+	{
+		return "_id";
+	}
+
 	/**
 	 * Returns the name of this table
 	 */
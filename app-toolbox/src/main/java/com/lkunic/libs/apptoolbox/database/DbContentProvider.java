@@ -11,34 +11,121 @@
  */
 package com.lkunic.libs.apptoolbox.database;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.UriMatcher;
+import android.content.OperationApplicationException;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import com.lkunic.libs.apptoolbox.R;
 import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Provides common functionality for creating an application content provider.
  */
 public abstract class DbContentProvider extends ContentProvider
 {
+	// Query parameter used to limit the number of rows returned by a query ("limit" or "offset,limit")
+	public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+	// Query parameter containing a full-text search query, only supported for full-text searchable tables
+	public static final String QUERY_PARAMETER_MATCH = "match";
+
+	// Query parameters of an insert uri describing how existing rows are handled, see ConflictStrategy
+	public static final String QUERY_PARAMETER_CONFLICT = "conflict";
+	public static final String QUERY_PARAMETER_CONFLICT_KEY = "conflictKey";
+
+	// Method of call() that computes an aggregate value without returning the rows
+	public static final String METHOD_AGGREGATE = "aggregate";
+
+	// Methods of call() that export all tables to a snapshot file, and import a snapshot file or asset. Files are
+	// passed as file descriptors opened by the caller
+	public static final String METHOD_EXPORT_SNAPSHOT = "exportSnapshot";
+	public static final String METHOD_IMPORT_SNAPSHOT = "importSnapshot";
+
+	// Extras of the aggregate and snapshot calls
+	static final String EXTRA_URI = "uri";
+	static final String EXTRA_FUNCTION = "function";
+	static final String EXTRA_COLUMN = "column";
+	static final String EXTRA_SELECTION = "selection";
+	static final String EXTRA_SELECTION_ARGS = "selectionArgs";
+	static final String EXTRA_GROUP_BY = "groupBy";
+	static final String EXTRA_RESULT = "result";
+	static final String EXTRA_GROUP_KEYS = "groupKeys";
+	static final String EXTRA_FILE = "file";
+	static final String EXTRA_ASSET = "asset";
+
+	// Aggregate functions that can be used in the aggregate call
+	private static final Set<String> AGGREGATE_FUNCTIONS = new HashSet<>(Arrays.asList(
+			DbQuery.COUNT, DbQuery.SUM, DbQuery.TOTAL, DbQuery.MIN, DbQuery.MAX, DbQuery.AVG));
+
 	// Used to store the database item types (representing the database tables)
 	private IQueryable[] mDatabaseItemTypes;
 
 	// The helper object used for executing database operations
 	private DatabaseHelper dbHelper;
 
-	// The helper object used for determining the given uri type
-	private static UriMatcher sUriMatcher = new UriMatcher((UriMatcher.NO_MATCH));
+	// Routes of the uris handled by this provider
+	private UriRoutingTable mRoutingTable;
+
+	// Merges change notifications of the same collection uri
+	private NotificationCoalescer mNotificationCoalescer;
+
+	// Join uris that have to be notified when the data of an item type changes, keyed by its collection uri
+	private Map<Uri, List<Uri>> mDependentUris = new HashMap<>();
+
+	// Whether query plans are checked for full table scans
+	private boolean mQueryPlanDebugEnabled;
+
+	// Cache of rows read through item uris, null if disabled
+	private RowCache mRowCache;
+
+	// Tables whose rows can be changed by foreign key actions, keyed by the referenced table, loaded on first use
+	private volatile Map<String, Set<String>> mReferencingTables;
+
+	// Listener receiving the metrics of sampled operations, and the number of operations per sample
+	private volatile DbMetricsListener mMetricsListener;
+	private volatile int mMetricsSampleInterval = 1;
+	private final AtomicInteger mOperationCounter = new AtomicInteger();
 
 	@Override
 	public boolean onCreate()
@@ -50,11 +137,12 @@ public abstract class DbContentProvider extends ContentProvider
 			throw new DatabaseProviderException("Could not create the content provider. No item types set.");
 		}
 
-		for (int i = 0, n = mDatabaseItemTypes.length; i < n; i++)
-		{
-			sUriMatcher.addURI(getAuthority(), mDatabaseItemTypes[i].getUriPath(), i * 10);
-			sUriMatcher.addURI(getAuthority(), mDatabaseItemTypes[i].getUriPath() + "/#", i * 10 + 1);
-		}
+		mRoutingTable = createRoutingTable();
+		mNotificationCoalescer = new NotificationCoalescer(getContext().getContentResolver(), getNotificationWindow());
+		mQueryPlanDebugEnabled = isQueryPlanDebugEnabled();
+
+		int rowCacheSize = getRowCacheSize();
+		mRowCache = rowCacheSize > 0 ? new RowCache(rowCacheSize) : null;
 
 		// Create the database helper object
 		dbHelper = getDatabaseHelper();
@@ -62,6 +150,110 @@ public abstract class DbContentProvider extends ContentProvider
 		return true;
 	}
 
+	/**
+	 * Resolves the table descriptors of all item types into a routing table.
+	 */
+	private UriRoutingTable createRoutingTable()
+	{
+		String appName = getContext().getResources().getString(R.string.app_name);
+		String collectionMimeType = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + appName;
+		String itemMimeType = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + appName;
+
+		UriRoutingTable routingTable = new UriRoutingTable(getAuthority());
+
+		for (IQueryable itemType : mDatabaseItemTypes)
+		{
+			DatabaseTable table = itemType.getDatabaseTable();
+			Uri collectionUri = buildCollectionUri(itemType.getUriPath());
+
+			routingTable.addRoutes(itemType.getUriPath(),
+					new UriRoute(table, collectionMimeType, collectionUri, false),
+					new UriRoute(table, itemMimeType, collectionUri, true));
+		}
+
+		DbJoin[] joins = getJoins();
+
+		for (DbJoin join : joins)
+		{
+			Uri joinUri = buildCollectionUri(join.getUriPath());
+
+			routingTable.addRoutes(join.getUriPath(),
+					new UriRoute(join, collectionMimeType, joinUri, false),
+					new UriRoute(join, itemMimeType, joinUri, true));
+
+			// Changes to any of the joined tables change the join results
+			addDependentUri(join.getBaseType(), joinUri);
+			for (IQueryable joinedType : join.getJoinedTypes())
+			{
+				addDependentUri(joinedType, joinUri);
+			}
+		}
+
+		return routingTable;
+	}
+
+	/**
+	 * Builds the collection uri for the given path.
+	 */
+	private Uri buildCollectionUri(String path)
+	{
+		return new Uri.Builder()
+				.scheme(ContentResolver.SCHEME_CONTENT)
+				.authority(getAuthority())
+				.path(path)
+				.build();
+	}
+
+	/**
+	 * Registers a uri that is notified whenever the data of the given item type changes.
+	 */
+	private void addDependentUri(IQueryable itemType, Uri uri)
+	{
+		Uri collectionUri = buildCollectionUri(itemType.getUriPath());
+		List<Uri> uris = mDependentUris.get(collectionUri);
+
+		if (uris == null)
+		{
+			uris = new ArrayList<>();
+			mDependentUris.put(collectionUri, uris);
+		}
+
+		uris.add(uri);
+	}
+
+	/**
+	 * Returns the route of the given uri.
+	 * @throws DatabaseProviderException If the uri is not handled by this provider.
+	 */
+	private UriRoute resolveRoute(Uri uri)
+	{
+		UriRoute route = mRoutingTable.resolve(uri);
+
+		if (route == null)
+		{
+			// The given uri can't be matched
+			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
+		}
+
+		return route;
+	}
+
+	/**
+	 * Returns the route of the given uri, making sure that it can be written to.
+	 * @throws DatabaseProviderException If the uri is not handled by this provider or is read-only.
+	 */
+	private UriRoute resolveWritableRoute(Uri uri)
+	{
+		UriRoute route = resolveRoute(uri);
+
+		if (route.isJoin())
+		{
+			throw new DatabaseProviderException("Join uris are read-only: " + uri.toString());
+		}
+
+		return route;
+	}
+
 	/**
 	 * Creates a new DatabaseHelper object that is used for executing database operations.
 	 */
@@ -74,100 +266,354 @@ public abstract class DbContentProvider extends ContentProvider
 			tables[i] = mDatabaseItemTypes[i].getDatabaseTable();
 		}
 
-		return new DatabaseHelper(getContext(), getDatabaseName(), getDatabaseVersion(), tables);
+		DatabaseHelper helper = new DatabaseHelper(getContext(), getDatabaseName(), getDatabaseVersion(), tables,
+				getDatabaseProfile());
+
+		String prebuiltDatabaseAsset = getPrebuiltDatabaseAsset();
+		if (prebuiltDatabaseAsset != null)
+		{
+			helper.setPrebuiltDatabase(prebuiltDatabaseAsset, getPrebuiltDatabaseChecksum());
+		}
+
+		return helper;
+	}
+
+	/**
+	 * Override to install a prebuilt database from the assets on first launch, instead of creating the tables and
+	 * inserting the seed data. See {@link DatabaseHelper#setPrebuiltDatabase(String, long)}.
+	 * @return Path in the assets folder of the database file, or null to create the database (default).
+	 */
+	protected String getPrebuiltDatabaseAsset()
+	{
+		return null;
+	}
+
+	/**
+	 * Override to verify the prebuilt database with its CRC32 checksum before it is installed.
+	 * @return The checksum, or -1 to skip the check (default).
+	 */
+	protected long getPrebuiltDatabaseChecksum()
+	{
+		return -1;
+	}
+
+	/**
+	 * Override to declare read-only join uris between the registered item types. Every item type used in a join has
+	 * to be one of the item types returned by getDatabaseItemTypes().
+	 */
+	protected DbJoin[] getJoins()
+	{
+		return new DbJoin[0];
+	}
+
+	/**
+	 * Override to provide performance settings for the database connection, e.g. enable write-ahead logging so that
+	 * list queries don't wait for background writes. By default the SQLite defaults are used.
+	 */
+	protected DatabaseProfile getDatabaseProfile()
+	{
+		return DatabaseProfile.create();
+	}
+
+	/**
+	 * Override to set the time in milliseconds during which change notifications of the same item type are merged
+	 * into one. By default notifications are delivered immediately (changes made in a batch are always merged and
+	 * delivered when the batch is committed).
+	 */
+	protected long getNotificationWindow()
+	{
+		return 0;
+	}
+
+	/**
+	 * Returns the object that delivers change notifications, which also counts requested and delivered
+	 * notifications.
+	 */
+	public NotificationCoalescer getNotificationCoalescer()
+	{
+		return mNotificationCoalescer;
+	}
+
+	/**
+	 * Override to enable checking the plan of every query with EXPLAIN QUERY PLAN. Queries that scan a whole table
+	 * instead of using an index are logged as warnings. Meant for debug builds only, as it doubles the query cost.
+	 */
+	protected boolean isQueryPlanDebugEnabled()
+	{
+		return false;
+	}
+
+	/**
+	 * Override to enable caching of rows read through item uris (without a selection), e.g. for detail screens that
+	 * repeatedly load the same items. Returns the maximum number of cached rows, 0 disables the cache (default).
+	 */
+	protected int getRowCacheSize()
+	{
+		return 0;
+	}
+
+	/**
+	 * Returns the row cache, or null if it is disabled.
+	 */
+	public RowCache getRowCache()
+	{
+		return mRowCache;
+	}
+
+	/**
+	 * Sets the listener that receives latency and row count measurements of the provider operations.
+	 * @param listener       The listener, or null to stop measuring.
+	 * @param sampleInterval Only one of this many operations is measured, keeping the overhead low.
+	 */
+	public void setMetricsListener(DbMetricsListener listener, int sampleInterval)
+	{
+		if (sampleInterval < 1)
+		{
+			throw new IllegalArgumentException("Sample interval has to be positive");
+		}
+
+		mMetricsSampleInterval = sampleInterval;
+		mMetricsListener = listener;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		super.shutdown();
+
+		// Deliver the notifications that are still waiting
+		mNotificationCoalescer.flush();
+
+		// Release the database connection held by the helper
+		dbHelper.shutdown();
 	}
 
 	@Override
 	public String getType(@NonNull Uri uri)
 	{
-		int uriType = sUriMatcher.match(uri);
+		return resolveRoute(uri).getMimeType();
+	}
+
+	// region Database access methods
+
+	@Override
+	public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+	{
+		return query(uri, projection, selection, selectionArgs, sortOrder, null);
+	}
+
+	@Override
+	public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder, CancellationSignal cancellationSignal)
+	{
+		long startTime = shouldSample() ? System.nanoTime() : 0;
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+
+		// Get the route of the uri
+		UriRoute route = resolveRoute(uri);
+
+		// Notify on the uri without query parameters, so that any change to the data is observed
+		Uri notificationUri = uri.buildUpon().clearQuery().build();
+		String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+		String match = uri.getQueryParameter(QUERY_PARAMETER_MATCH);
 
-		if (uriType % 10 == 0)
+		// Check the row cache for plain item lookups
+		String cacheKey = null;
+		long cacheId = 0;
+		long cacheGeneration = 0;
+
+		if (mRowCache != null && route.isItem() && !route.isJoin() && selection == null && limit == null &&
+				match == null)
 		{
-			return ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
-					getContext().getResources().getString(R.string.app_name);
+			cacheId = parseId(uri);
+			cacheKey = RowCache.buildKey(route.getTableName(), cacheId, projection);
+
+			Cursor cachedCursor = mRowCache.get(cacheKey);
+			if (cachedCursor != null)
+			{
+				cachedCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+				return cachedCursor;
+			}
+
+			cacheGeneration = mRowCache.getGeneration(route.getTableName());
 		}
-		else if (uriType % 10 == 1)
+
+		// Set the table based on the uri route
+		builder.setTables(route.getTableName());
+
+		// Add the conditions given by the uri
+		selection = buildRouteSelection(route, uri, match, selection);
+		selectionArgs = buildRouteSelectionArgs(route, uri, match, selectionArgs);
+
+		// Query the database with the built query
+		if (mQueryPlanDebugEnabled)
 		{
-			return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" +
-					getContext().getResources().getString(R.string.app_name);
+			checkQueryPlan(builder.buildQuery(projection, selection, null, null, sortOrder, limit), selectionArgs);
 		}
-		else
+
+		Cursor cursor = queryBuilder(builder, projection, selection, selectionArgs, sortOrder, limit,
+				cancellationSignal);
+
+		cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+		if (cacheKey != null)
 		{
-			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
+			mRowCache.put(cacheKey, route.getTableName(), cacheId, cacheGeneration, cursor);
 		}
-	}
 
-	// region Database access methods
+		if (startTime != 0)
+		{
+			// Measure the query including the first window fill, which is when SQLite actually runs it
+			int rowCount = cursor.getCount();
+			recordOperation(DbMetricsListener.OPERATION_QUERY, route, startTime, rowCount,
+					estimateWindowFills(cursor, rowCount));
+		}
+
+		return cursor;
+	}
 
+	/**
+	 * Handles the aggregate call, which computes a count, sum, minimum, maximum or average as a single SQL query
+	 * instead of returning a cursor with every row. The result is returned in the {@link #EXTRA_RESULT} extra, as a
+	 * Long, a Double, a String (MIN or MAX of text values) or null. If the values are grouped, the extra contains an
+	 * array with the value of every group (long[], double[] or String[]) and the {@link #EXTRA_GROUP_KEYS} extra
+	 * contains the matching group keys.
+	 */
 	@Override
-	public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+	public Bundle call(@NonNull String method, String arg, Bundle extras)
 	{
-		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		switch (method)
+		{
+			case METHOD_AGGREGATE:
+				enforcePermission(getReadPermission());
+				return aggregate(requireExtras(extras));
+			case METHOD_EXPORT_SNAPSHOT:
+				enforcePermission(getReadPermission());
+				return exportSnapshotFile(requireExtras(extras));
+			case METHOD_IMPORT_SNAPSHOT:
+				enforcePermission(getWritePermission());
+				return importSnapshotFile(requireExtras(extras));
+			default:
+				return super.call(method, arg, extras);
+		}
+	}
 
-		// Get the uri type
-		int uriType = sUriMatcher.match(uri);
-		if (uriType == -1)
+	/**
+	 * Writes the rows of all tables to the channel as a binary snapshot, which can be imported with
+	 * {@link #importSnapshot(ReadableByteChannel)}. The tables are read in one transaction, so writes wait for the
+	 * export to finish.
+	 * @return Number of exported rows.
+	 * @throws IOException If the snapshot could not be written to the channel.
+	 */
+	public int exportSnapshot(WritableByteChannel channel) throws IOException
+	{
+		Set<String> tableNames = getTableNames();
+		return TableSnapshot.export(dbHelper.getDatabase(), tableNames.toArray(new String[tableNames.size()]),
+				channel);
+	}
+
+	/**
+	 * Imports the rows of a binary snapshot created with {@link #exportSnapshot(WritableByteChannel)}, e.g. to seed
+	 * the database from a bundled asset. The rows are streamed from the channel and written in one transaction using
+	 * the same compiled statements for all rows of a table. Existing rows with the same primary key are updated in
+	 * place, so rows referencing them through foreign keys are kept. Nothing is imported if the snapshot is invalid.
+	 * @return Number of imported rows.
+	 * @throws IOException If the snapshot could not be read from the channel.
+	 */
+	public int importSnapshot(ReadableByteChannel channel) throws IOException
+	{
+		Map<String, Integer> rowCounts = TableSnapshot.importInto(dbHelper.getDatabase(),
+				dbHelper.getStatementCache(), getTableNames(), channel);
+
+		int importedRows = 0;
+
+		for (IQueryable itemType : mDatabaseItemTypes)
 		{
-			// The given uri can't be matched
-			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
+			String tableName = itemType.getDatabaseTable().getTableName();
+			Integer rowCount = rowCounts.get(tableName);
+
+			if (rowCount == null || rowCount == 0)
+			{
+				continue;
+			}
+
+			invalidateCachedTable(tableName);
+			notifyChange(mRoutingTable.getCollectionRoute(itemType.getUriPath()));
 		}
-		
-		int uriIndex = uriType / 10;
-		
-		// Set the table based on the uri type
-		builder.setTables(mDatabaseItemTypes[uriIndex].getDatabaseTable().getTableName());
-		
-		if (uriType % 10 == 1)
+
+		for (Integer rowCount : rowCounts.values())
 		{
-			// Set the item id in the selection clause
-			builder.appendWhere("_id = " + uri.getLastPathSegment());
+			importedRows += rowCount;
 		}
-		
-		// Query the database with the built query
-		Cursor cursor = builder.query(dbHelper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
-		cursor.setNotificationUri(getContext().getContentResolver(), uri);
-		
-		return cursor;
+
+		return importedRows;
 	}
 
 	@Override
 	public Uri insert(@NonNull Uri uri, ContentValues values)
+	{
+		long newId = insertRow(uri, values);
+
+		if (newId == -1)
+		{
+			// The values were ignored because of a conflict
+			return null;
+		}
+
+		// The values were successfully added, build the result Uri
+		return ContentUris.withAppendedId(uri.buildUpon().clearQuery().build(), newId);
+	}
+
+	/**
+	 * Inserts the values like {@link #insert(Uri, ContentValues)}, but returns the id instead of the item uri.
+	 * @return Id of the inserted or updated row, or -1 if the values were ignored because of a conflict.
+	 */
+	long insertRow(Uri uri, ContentValues values)
 	{
 		if (values == null)
 		{
 			// No values to insert
 			throw new DatabaseProviderException("Insertion values can not be null");
 		}
-		
-		// Get the uri type
-		int uriType = sUriMatcher.match(uri);
-		if (uriType == -1)
-		{
-			// The given uri can't be matched
-			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
-		}
-		
-		int uriIndex = uriType / 10;
-		
-		// Set the table based on the uri type
-		String tableName = mDatabaseItemTypes[uriIndex].getDatabaseTable().getTableName();
-		
+
+		long startTime = shouldSample() ? System.nanoTime() : 0;
+
+		// Get the route of the uri
+		UriRoute route = resolveWritableRoute(uri);
+		ConflictStrategy conflictStrategy = ConflictStrategy.fromUri(uri);
+
 		try
 		{
-			SQLiteDatabase db = dbHelper.getWritableDatabase();
-
 			// Try to insert the values into the table
-			long newId = db.insertOrThrow(tableName, null, values);
+			long newId = executeInsert(dbHelper.getDatabase(), route, values, conflictStrategy);
+
+			if (startTime != 0)
+			{
+				recordOperation(DbMetricsListener.OPERATION_INSERT, route, startTime, newId != -1 ? 1 : 0, 0);
+			}
 
-			// The values were successfully added, build the result Uri
-			Uri resultUri = ContentUris.withAppendedId(uri, newId);
+			if (newId == -1)
+			{
+				return -1;
+			}
+
+			if (conflictStrategy != null)
+			{
+				// A replaced row can have a different id than the new one, so the whole table is invalidated
+				if (conflictStrategy.isReplace())
+				{
+					invalidateCachedTable(route.getTableName());
+				}
+				else if (conflictStrategy.isUpdate())
+				{
+					invalidateCachedItem(route.getTableName(), newId);
+				}
+			}
 
 			// Notify the content resolver about the change (automatically updates active cursors)
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(route, getInsertOperation(conflictStrategy), getInsertedIds(conflictStrategy, newId));
 
-			db.close();
-			return resultUri;
+			return newId;
 		}
 		catch (SQLException e)
 		{
@@ -184,39 +630,43 @@ public abstract class DbContentProvider extends ContentProvider
 			throw new DatabaseProviderException("Update values can not be null");
 		}
 
-		// Get the uri type
-		int uriType = sUriMatcher.match(uri);
-		if (uriType == -1)
-		{
-			// The given uri can't be matched
-			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
-		}
-
-		int uriIndex = uriType / 10;
+		long startTime = shouldSample() ? System.nanoTime() : 0;
 
-		// Set the table based on the uri type
-		String tableName = mDatabaseItemTypes[uriIndex].getDatabaseTable().getTableName();
-
-		if (uriType % 10 == 1)
-		{
-			// Set the item id in the selection clause
-			selection = "_id = " + uri.getLastPathSegment();
-		}
+		// Get the route of the uri
+		UriRoute route = resolveWritableRoute(uri);
 
 		try
 		{
-			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			SQLiteDatabase db = dbHelper.getDatabase();
+			int affectedRows;
+
+			if (route.isItem())
+			{
+				// Update the single item using the cached statement for this table and set of columns
+				String[] columns = StatementCache.getSortedColumns(values);
+				String sql = StatementCache.buildUpdateByIdSql(route.getTableName(), route.getIdColumn(), columns);
+
+				affectedRows = executeUpdateDelete(db, sql, columns, values, parseId(uri));
+			}
+			else
+			{
+				// Try to update the selected values in the database
+				affectedRows = db.update(route.getTableName(), values, selection, selectionArgs);
+			}
 
-			// Try to update the selected values in the database
-			int affectedRows = db.update(tableName, values, selection, selectionArgs);
+			if (startTime != 0)
+			{
+				recordOperation(DbMetricsListener.OPERATION_UPDATE, route, startTime, affectedRows, 0);
+			}
 
 			if (affectedRows != 0)
 			{
+				invalidateCachedRows(route, uri);
+
 				// Notify the content resolver about the change (automatically updates active cursors)
-				getContext().getContentResolver().notifyChange(uri, null);
+				notifyChange(route, ChangeSet.OPERATION_UPDATE, route.isItem() ? new long[] { parseId(uri) } : null);
 			}
 
-			db.close();
 			return affectedRows;
 		}
 		catch (Exception e)
@@ -229,39 +679,42 @@ public abstract class DbContentProvider extends ContentProvider
 	@Override
 	public int delete(@NonNull Uri uri, String selection, String[] selectionArgs)
 	{
-		// Get the uri type
-		int uriType = sUriMatcher.match(uri);
-		if (uriType == -1)
-		{
-			// The given uri can't be matched
-			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
-		}
-
-		int uriIndex = uriType / 10;
-
-		// Set the table based on the uri type
-		String tableName = mDatabaseItemTypes[uriIndex].getDatabaseTable().getTableName();
+		long startTime = shouldSample() ? System.nanoTime() : 0;
 
-		if (uriType % 10 == 1)
-		{
-			// Set the item id in the selection clause
-			selection = "_id = " + uri.getLastPathSegment();
-		}
+		// Get the route of the uri
+		UriRoute route = resolveWritableRoute(uri);
 
 		try
 		{
-			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			SQLiteDatabase db = dbHelper.getDatabase();
+			int affectedRows;
+
+			if (route.isItem())
+			{
+				// Delete the single item using the cached statement for this table
+				String sql = StatementCache.buildDeleteByIdSql(route.getTableName(), route.getIdColumn());
 
-			// Try to delete the selected entries from the database
-			int affectedRows = db.delete(tableName, selection, null);
+				affectedRows = executeUpdateDelete(db, sql, new String[0], null, parseId(uri));
+			}
+			else
+			{
+				// Try to delete the selected entries from the database
+				affectedRows = db.delete(route.getTableName(), selection, selectionArgs);
+			}
+
+			if (startTime != 0)
+			{
+				recordOperation(DbMetricsListener.OPERATION_DELETE, route, startTime, affectedRows, 0);
+			}
 
 			if (affectedRows != 0)
 			{
+				invalidateCachedRows(route, uri);
+
 				// Notify the content resolver about the change (automatically updates active cursors)
-				getContext().getContentResolver().notifyChange(uri, null);
+				notifyChange(route, ChangeSet.OPERATION_DELETE, route.isItem() ? new long[] { parseId(uri) } : null);
 			}
 
-			db.close();
 			return affectedRows;
 		}
 		catch (Exception e)
@@ -271,6 +724,936 @@ public abstract class DbContentProvider extends ContentProvider
 		}
 	}
 
+	@Override
+	public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values)
+	{
+		long startTime = shouldSample() ? System.nanoTime() : 0;
+
+		// Get the route of the uri
+		UriRoute route = resolveWritableRoute(uri);
+		if (route.isItem())
+		{
+			// Bulk inserts are only supported on collection uris
+			throw new DatabaseProviderException("Invalid uri: " + uri.toString());
+		}
+
+		ConflictStrategy conflictStrategy = ConflictStrategy.fromUri(uri);
+		SQLiteDatabase db = dbHelper.getDatabase();
+		int insertedRows = 0;
+
+		// Ids of the inserted rows for the change notification, not collected if there are too many to be notified
+		long[] insertedIds = values.length <= ChangeSet.MAX_IDS ? new long[values.length] : null;
+
+		db.beginTransaction();
+		try
+		{
+			for (ContentValues row : values)
+			{
+				if (row == null)
+				{
+					throw new DatabaseProviderException("Insertion values can not be null");
+				}
+
+				// Rows with the same set of columns reuse the same compiled statement
+				long id = executeInsert(db, route, row, conflictStrategy);
+
+				if (id != -1)
+				{
+					if (insertedIds != null)
+					{
+						insertedIds[insertedRows] = id;
+					}
+
+					insertedRows++;
+				}
+			}
+
+			db.setTransactionSuccessful();
+		}
+		catch (SQLException e)
+		{
+			// There was a problem while inserting the values, nothing from this batch is kept
+			throw new DatabaseProviderException("Values not inserted. See inner exception for details.", e);
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		if (startTime != 0)
+		{
+			recordOperation(DbMetricsListener.OPERATION_BULK_INSERT, route, startTime, insertedRows, 0);
+		}
+
+		if (conflictStrategy != null && insertedRows != 0)
+		{
+			invalidateCachedTable(route.getTableName());
+		}
+
+		if (insertedRows != 0)
+		{
+			if (insertedIds != null && conflictStrategy != null && conflictStrategy.isReplace())
+			{
+				// Replaced rows are deleted, and their ids are not known
+				insertedIds = null;
+			}
+
+			// Notify once for the whole batch
+			notifyChange(route, getInsertOperation(conflictStrategy),
+					insertedIds != null ? Arrays.copyOf(insertedIds, insertedRows) : null);
+		}
+
+		return insertedRows;
+	}
+
+	@Override
+	public @NonNull ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException
+	{
+		SQLiteDatabase db = dbHelper.getDatabase();
+		ContentProviderResult[] results;
+		boolean committed = false;
+
+		// Changes made by the operations are notified once the batch is committed
+		mNotificationCoalescer.beginBatch();
+		if (mRowCache != null)
+		{
+			mRowCache.beginBatch();
+		}
+
+		db.beginTransaction();
+		try
+		{
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			committed = true;
+		}
+		finally
+		{
+			db.endTransaction();
+
+			if (mRowCache != null)
+			{
+				mRowCache.endBatch();
+			}
+
+			mNotificationCoalescer.endBatch(committed);
+		}
+
+		return results;
+	}
+
+	// endregion
+
+	// region Support methods
+
+	/**
+	 * Returns the selection combined with the conditions given by the uri (full-text search and item id).
+	 * @throws DatabaseProviderException If the uri contains a full-text search query and the table is not searchable.
+	 */
+	private static String buildRouteSelection(UriRoute route, Uri uri, String match, String selection)
+	{
+		if (match != null)
+		{
+			if (!(route.getTable() instanceof FtsDatabaseTable))
+			{
+				throw new DatabaseProviderException("Full-text search is not supported for uri: " + uri.toString());
+			}
+
+			// Select the rows matched by the full-text index
+			selection = DatabaseUtils.concatenateWhere(((FtsDatabaseTable) route.getTable()).getMatchSelection(),
+					selection);
+		}
+
+		if (route.isItem())
+		{
+			// Select the item by id, bound as an argument so that the statement is the same for every item
+			selection = DatabaseUtils.concatenateWhere(route.getIdColumn() + " = ?", selection);
+		}
+
+		return selection;
+	}
+
+	/**
+	 * Returns the selection arguments of the selection built by buildRouteSelection(), in placeholder order.
+	 */
+	private static String[] buildRouteSelectionArgs(UriRoute route, Uri uri, String match, String[] selectionArgs)
+	{
+		if (match != null)
+		{
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { match }, selectionArgs);
+		}
+
+		if (route.isItem())
+		{
+			selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { uri.getLastPathSegment() }, selectionArgs);
+		}
+
+		return selectionArgs;
+	}
+
+	/**
+	 * Throws a SecurityException if the caller doesn't hold the given permission. Used for calls, which are not
+	 * covered by the provider permissions.
+	 */
+	private void enforcePermission(String permission)
+	{
+		if (permission != null)
+		{
+			getContext().enforceCallingOrSelfPermission(permission, "Accessing the database requires " + permission);
+		}
+	}
+
+	private static Bundle requireExtras(Bundle extras)
+	{
+		if (extras == null)
+		{
+			throw new DatabaseProviderException("Call requires extras");
+		}
+
+		return extras;
+	}
+
+	/**
+	 * Returns the names of the tables of all item types.
+	 */
+	private Set<String> getTableNames()
+	{
+		Set<String> tableNames = new LinkedHashSet<>();
+
+		for (IQueryable itemType : mDatabaseItemTypes)
+		{
+			tableNames.add(itemType.getDatabaseTable().getTableName());
+		}
+
+		return tableNames;
+	}
+
+	/**
+	 * Exports all tables to the file descriptor given by the extras of an export call. The caller opens the file, so
+	 * the provider never writes to paths chosen by other applications.
+	 */
+	private Bundle exportSnapshotFile(Bundle extras)
+	{
+		ParcelFileDescriptor fileDescriptor = extras.getParcelable(EXTRA_FILE);
+
+		if (fileDescriptor == null)
+		{
+			throw new DatabaseProviderException("Snapshot export requires a file descriptor");
+		}
+
+		Bundle result = new Bundle();
+
+		try
+		{
+			FileOutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(fileDescriptor);
+
+			try
+			{
+				result.putLong(EXTRA_RESULT, exportSnapshot(outputStream.getChannel()));
+			}
+			finally
+			{
+				outputStream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseProviderException("Snapshot not exported. See inner exception for details.", e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Imports the snapshot file descriptor or asset given by the extras of an import call. Like the export, files
+	 * are opened by the caller and passed as file descriptors.
+	 */
+	private Bundle importSnapshotFile(Bundle extras)
+	{
+		ParcelFileDescriptor fileDescriptor = extras.getParcelable(EXTRA_FILE);
+		String assetPath = extras.getString(EXTRA_ASSET);
+
+		if (fileDescriptor == null && assetPath == null)
+		{
+			throw new DatabaseProviderException("Snapshot import requires a file descriptor or an asset");
+		}
+
+		Bundle result = new Bundle();
+
+		try
+		{
+			InputStream inputStream = fileDescriptor != null ?
+					new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor) :
+					getContext().getAssets().open(assetPath);
+
+			try
+			{
+				ReadableByteChannel channel = inputStream instanceof FileInputStream ?
+						((FileInputStream) inputStream).getChannel() : Channels.newChannel(inputStream);
+				result.putLong(EXTRA_RESULT, importSnapshot(channel));
+			}
+			finally
+			{
+				inputStream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DatabaseProviderException("Snapshot not imported. See inner exception for details.", e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Computes the aggregate value described by the extras of an aggregate call.
+	 */
+	private Bundle aggregate(Bundle extras)
+	{
+		long startTime = shouldSample() ? System.nanoTime() : 0;
+
+		Uri uri = extras.getParcelable(EXTRA_URI);
+		String function = extras.getString(EXTRA_FUNCTION);
+		String column = extras.getString(EXTRA_COLUMN);
+		String groupBy = extras.getString(EXTRA_GROUP_BY);
+
+		if (uri == null || !AGGREGATE_FUNCTIONS.contains(function))
+		{
+			throw new DatabaseProviderException("Invalid aggregate call: " + function + " on " + uri);
+		}
+
+		UriRoute route = resolveRoute(uri);
+		String match = uri.getQueryParameter(QUERY_PARAMETER_MATCH);
+
+		String selection = buildRouteSelection(route, uri, match, extras.getString(EXTRA_SELECTION));
+		String[] selectionArgs = buildRouteSelectionArgs(route, uri, match,
+				extras.getStringArray(EXTRA_SELECTION_ARGS));
+
+		String expression = function + "(" + (column != null ? column : "*") + ")";
+		String[] projection = groupBy != null ? new String[] { groupBy, expression } : new String[] { expression };
+
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		builder.setTables(route.getTableName());
+		String sql = builder.buildQuery(projection, selection, groupBy, null, null, null);
+
+		if (mQueryPlanDebugEnabled)
+		{
+			checkQueryPlan(sql, selectionArgs);
+		}
+
+		Bundle result = new Bundle();
+		SQLiteDatabase db = dbHelper.getDatabase();
+		ReaderPool readerPool = getReaderPool(db);
+		SQLiteDatabase reader = readerPool != null ? readerPool.acquire() : null;
+
+		try
+		{
+			Cursor cursor = (reader != null ? reader : db).rawQuery(sql, selectionArgs);
+
+			try
+			{
+				if (groupBy == null)
+				{
+					if (cursor.moveToFirst())
+					{
+						putAggregateValue(result, cursor, 0);
+					}
+				}
+				else
+				{
+					putGroupedAggregateValues(result, cursor);
+				}
+
+				if (startTime != 0)
+				{
+					recordOperation(DbMetricsListener.OPERATION_QUERY, route, startTime, cursor.getCount(), 1);
+				}
+			}
+			finally
+			{
+				cursor.close();
+			}
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				readerPool.release(reader);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Puts the value of the given column into the result extra, as a Long, a Double, a String, or nothing if it is
+	 * null.
+	 */
+	private static void putAggregateValue(Bundle result, Cursor cursor, int columnIndex)
+	{
+		switch (cursor.getType(columnIndex))
+		{
+			case Cursor.FIELD_TYPE_INTEGER:
+				result.putLong(EXTRA_RESULT, cursor.getLong(columnIndex));
+				break;
+			case Cursor.FIELD_TYPE_FLOAT:
+				result.putDouble(EXTRA_RESULT, cursor.getDouble(columnIndex));
+				break;
+			case Cursor.FIELD_TYPE_STRING:
+				// MIN and MAX of text columns
+				result.putString(EXTRA_RESULT, cursor.getString(columnIndex));
+				break;
+			case Cursor.FIELD_TYPE_NULL:
+				break;
+			default:
+				throw new DatabaseProviderException("Aggregate value is a blob");
+		}
+	}
+
+	/**
+	 * Puts the group keys (first column) and aggregate values (second column) of all rows into the result extras.
+	 * The values are stored as a String[] if any of them is text (MIN or MAX of text columns), as a long[] if they
+	 * are all integers, otherwise as a double[].
+	 */
+	private static void putGroupedAggregateValues(Bundle result, Cursor cursor)
+	{
+		int count = cursor.getCount();
+		String[] keys = new String[count];
+		long[] longValues = new long[count];
+		double[] doubleValues = new double[count];
+		String[] stringValues = new String[count];
+		boolean integers = true;
+		boolean strings = false;
+
+		for (int i = 0; cursor.moveToNext(); i++)
+		{
+			keys[i] = cursor.getString(0);
+			longValues[i] = cursor.getLong(1);
+			doubleValues[i] = cursor.getDouble(1);
+			stringValues[i] = cursor.getString(1);
+
+			switch (cursor.getType(1))
+			{
+				case Cursor.FIELD_TYPE_FLOAT:
+					integers = false;
+					break;
+				case Cursor.FIELD_TYPE_STRING:
+					strings = true;
+					break;
+				case Cursor.FIELD_TYPE_BLOB:
+					throw new DatabaseProviderException("Aggregate value is a blob");
+			}
+		}
+
+		result.putStringArray(EXTRA_GROUP_KEYS, keys);
+
+		if (strings)
+		{
+			result.putStringArray(EXTRA_RESULT, stringValues);
+		}
+		else if (integers)
+		{
+			result.putLongArray(EXTRA_RESULT, longValues);
+		}
+		else
+		{
+			result.putDoubleArray(EXTRA_RESULT, doubleValues);
+		}
+	}
+
+	/**
+	 * Notifies about a change of the item type the route belongs to, and of the joins that include it. Notifications
+	 * are merged per collection uri, which also notifies the observers of the item uris. Used when the changed rows
+	 * are not known.
+	 * @param route Route of the changed uri.
+	 */
+	private void notifyChange(UriRoute route)
+	{
+		notifyChange(route, ChangeSet.OPERATION_UPDATE, null);
+	}
+
+	/**
+	 * Notifies about a change of the given rows of the item type the route belongs to, and of the joins that include
+	 * it. The ids are included in the notification of the item type (see {@link ChangeSet}).
+	 * @param route     Route of the changed uri.
+	 * @param operation One of the ChangeSet.OPERATION_ constants.
+	 * @param ids       Ids of the changed rows, or null if they are not known.
+	 */
+	private void notifyChange(UriRoute route, int operation, long[] ids)
+	{
+		mNotificationCoalescer.notifyChange(route.getCollectionUri(), operation, ids);
+
+		List<Uri> dependentUris = mDependentUris.get(route.getCollectionUri());
+		if (dependentUris != null)
+		{
+			for (Uri dependentUri : dependentUris)
+			{
+				mNotificationCoalescer.notifyChange(dependentUri);
+			}
+		}
+	}
+
+	/**
+	 * Returns the operation notified for an insert with the given conflict strategy. Inserts updating existing rows
+	 * are notified as updates, observers treat updated rows they don't know yet as new rows.
+	 */
+	private static int getInsertOperation(ConflictStrategy conflictStrategy)
+	{
+		return conflictStrategy != null && conflictStrategy.isUpdate() ? ChangeSet.OPERATION_UPDATE :
+				ChangeSet.OPERATION_INSERT;
+	}
+
+	/**
+	 * Returns the ids notified for a single insert. Replacing a row deletes the row it conflicts with, whose id is
+	 * not known.
+	 */
+	private static long[] getInsertedIds(ConflictStrategy conflictStrategy, long id)
+	{
+		return conflictStrategy != null && conflictStrategy.isReplace() ? null : new long[] { id };
+	}
+
+	/**
+	 * Inserts the values into the route table using a cached insert statement.
+	 * @param conflictStrategy How an existing row is handled, or null to fail on a conflict.
+	 * @return Id of the inserted or updated row, or -1 if the values were ignored because of a conflict.
+	 * @throws SQLException If the values could not be inserted.
+	 */
+	private long executeInsert(SQLiteDatabase db, UriRoute route, ContentValues values,
+			ConflictStrategy conflictStrategy)
+	{
+		if (conflictStrategy != null && conflictStrategy.isUpdate())
+		{
+			return executeUpsert(db, route, values, conflictStrategy.getKeyColumn());
+		}
+
+		String[] columns = StatementCache.getSortedColumns(values);
+		String sql = StatementCache.buildInsertSql(route.getTableName(), columns,
+				conflictStrategy != null ? conflictStrategy.getInsertConflictClause() : null);
+
+		StatementCache cache = dbHelper.getStatementCache();
+		SQLiteStatement statement = cache.acquire(db, sql);
+
+		try
+		{
+			StatementCache.bindValues(statement, columns, values);
+			return statement.executeInsert();
+		}
+		finally
+		{
+			cache.release(sql, statement);
+		}
+	}
+
+	/**
+	 * Updates the row with the same key as the values, or inserts the values if there is no such row. SQLite only
+	 * supports upserts natively from version 3.24, so the row is looked up by its key and then updated by id, both
+	 * using cached statements in one transaction.
+	 * @return Id of the updated or inserted row.
+	 * @throws SQLException If the values could not be written.
+	 */
+	private long executeUpsert(SQLiteDatabase db, UriRoute route, ContentValues values, String keyColumn)
+	{
+		Object key = values.get(keyColumn);
+
+		if (key == null)
+		{
+			throw new DatabaseProviderException("Values have to contain the key column " + keyColumn);
+		}
+
+		db.beginTransaction();
+		try
+		{
+			long id = findIdByKey(db, route, keyColumn, key);
+
+			if (id == -1)
+			{
+				id = executeInsert(db, route, values, null);
+			}
+			else
+			{
+				String[] columns = StatementCache.getSortedColumns(values);
+				String sql = StatementCache.buildUpdateByIdSql(route.getTableName(), route.getIdColumn(), columns);
+				executeUpdateDelete(db, sql, columns, values, id);
+			}
+
+			db.setTransactionSuccessful();
+			return id;
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Returns the id of the row with the given key using a cached statement, or -1 if there is no such row.
+	 */
+	private long findIdByKey(SQLiteDatabase db, UriRoute route, String keyColumn, Object key)
+	{
+		String sql = StatementCache.buildSelectIdByKeySql(route.getTableName(), route.getIdColumn(), keyColumn);
+
+		StatementCache cache = dbHelper.getStatementCache();
+		SQLiteStatement statement = cache.acquire(db, sql);
+
+		try
+		{
+			StatementCache.bindValue(statement, 1, key);
+			return statement.simpleQueryForLong();
+		}
+		catch (SQLiteDoneException e)
+		{
+			// No row has the key
+			return -1;
+		}
+		finally
+		{
+			cache.release(sql, statement);
+		}
+	}
+
+	/**
+	 * Executes a cached update or delete statement of a single item. The item id is bound after the values.
+	 * @param db      Database to execute the statement on.
+	 * @param sql     SQL of the statement.
+	 * @param columns Sorted list of the updated columns.
+	 * @param values  Values of the updated columns, can be null if there are no columns.
+	 * @param id      Id of the item.
+	 * @return Number of affected rows.
+	 */
+	private int executeUpdateDelete(SQLiteDatabase db, String sql, String[] columns, ContentValues values, long id)
+	{
+		StatementCache cache = dbHelper.getStatementCache();
+		SQLiteStatement statement = cache.acquire(db, sql);
+
+		try
+		{
+			if (values != null)
+			{
+				StatementCache.bindValues(statement, columns, values);
+			}
+
+			statement.bindLong(columns.length + 1, id);
+			return statement.executeUpdateDelete();
+		}
+		finally
+		{
+			cache.release(sql, statement);
+		}
+	}
+
+	/**
+	 * Executes the built query, passing the cancellation signal to the database if there is one (only on API 16+).
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private Cursor queryBuilder(SQLiteQueryBuilder builder, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder, String limit, CancellationSignal cancellationSignal)
+	{
+		SQLiteDatabase db = dbHelper.getDatabase();
+		ReaderPool readerPool = getReaderPool(db);
+
+		if (readerPool == null)
+		{
+			return queryBuilder(db, builder, projection, selection, selectionArgs, sortOrder, limit,
+					cancellationSignal);
+		}
+
+		SQLiteDatabase reader = readerPool.acquire();
+		if (reader == null)
+		{
+			// The pool has been closed
+			return queryBuilder(db, builder, projection, selection, selectionArgs, sortOrder, limit,
+					cancellationSignal);
+		}
+
+		try
+		{
+			Cursor cursor = queryBuilder(reader, builder, projection, selection, selectionArgs, sortOrder, limit,
+					cancellationSignal);
+
+			try
+			{
+				// Run the query while the connection is held, later window fills are rare and share the connection,
+				// which stays open until the cursor is closed
+				cursor.getCount();
+			}
+			catch (RuntimeException e)
+			{
+				// E.g. the query was cancelled during the window fill
+				cursor.close();
+				throw e;
+			}
+
+			return readerPool.wrapCursor(reader, cursor);
+		}
+		finally
+		{
+			readerPool.release(reader);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private static Cursor queryBuilder(SQLiteDatabase db, SQLiteQueryBuilder builder, String[] projection,
+			String selection, String[] selectionArgs, String sortOrder, String limit,
+			CancellationSignal cancellationSignal)
+	{
+		if (cancellationSignal == null)
+		{
+			return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+		}
+
+		return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit,
+				cancellationSignal);
+	}
+
+	/**
+	 * Returns the pool of read-only connections that can be used for a query, or null if the query has to use the
+	 * main connection. Queries inside a transaction of the current thread (e.g. in applyBatch) always use the main
+	 * connection, so that they see the uncommitted changes.
+	 */
+	private ReaderPool getReaderPool(SQLiteDatabase db)
+	{
+		ReaderPool readerPool = dbHelper.getReaderPool();
+		return readerPool != null && !db.inTransaction() ? readerPool : null;
+	}
+
+	/**
+	 * Removes the cached rows affected by a write on the given uri.
+	 */
+	private void invalidateCachedRows(UriRoute route, Uri uri)
+	{
+		if (route.isItem())
+		{
+			invalidateCachedItem(route.getTableName(), parseId(uri));
+		}
+		else
+		{
+			invalidateCachedTable(route.getTableName());
+		}
+	}
+
+	/**
+	 * Removes the cached rows of an item, and of the tables whose rows can be changed by foreign key actions when the
+	 * item is updated or deleted.
+	 */
+	private void invalidateCachedItem(String tableName, long id)
+	{
+		if (mRowCache != null)
+		{
+			mRowCache.invalidateItem(tableName, id);
+			invalidateReferencingTables(tableName);
+		}
+	}
+
+	/**
+	 * Removes the cached rows of a table, and of the tables whose rows can be changed by foreign key actions when its
+	 * rows are updated or deleted.
+	 */
+	private void invalidateCachedTable(String tableName)
+	{
+		if (mRowCache != null)
+		{
+			mRowCache.invalidateTable(tableName);
+			invalidateReferencingTables(tableName);
+		}
+	}
+
+	private void invalidateReferencingTables(String tableName)
+	{
+		Map<String, Set<String>> referencingTables = mReferencingTables;
+
+		if (referencingTables == null)
+		{
+			// The foreign keys don't change while the provider is running
+			referencingTables = loadReferencingTables();
+			mReferencingTables = referencingTables;
+		}
+
+		Set<String> tables = referencingTables.get(tableName.toLowerCase(Locale.US));
+
+		if (tables != null)
+		{
+			for (String referencingTable : tables)
+			{
+				mRowCache.invalidateTable(referencingTable);
+			}
+		}
+	}
+
+	/**
+	 * Returns the tables whose rows are changed by ON DELETE or ON UPDATE actions (CASCADE, SET NULL or SET DEFAULT)
+	 * of their foreign keys, keyed by the lower case name of the referenced table. Actions can cascade through
+	 * several tables, so the indirectly referencing tables are included. A table referencing itself is included in
+	 * its own set, as deleting one of its items can change its other rows.
+	 */
+	private Map<String, Set<String>> loadReferencingTables()
+	{
+		SQLiteDatabase db = dbHelper.getDatabase();
+		Map<String, Set<String>> directReferences = new HashMap<>();
+
+		for (String tableName : getTableNames())
+		{
+			Cursor cursor = db.rawQuery("PRAGMA foreign_key_list(" + tableName + ")", null);
+
+			try
+			{
+				int tableIndex = cursor.getColumnIndexOrThrow("table");
+				int onUpdateIndex = cursor.getColumnIndexOrThrow("on_update");
+				int onDeleteIndex = cursor.getColumnIndexOrThrow("on_delete");
+
+				while (cursor.moveToNext())
+				{
+					if (!changesReferencingRows(cursor.getString(onUpdateIndex)) &&
+							!changesReferencingRows(cursor.getString(onDeleteIndex)))
+					{
+						continue;
+					}
+
+					String referencedTable = cursor.getString(tableIndex).toLowerCase(Locale.US);
+					Set<String> tables = directReferences.get(referencedTable);
+
+					if (tables == null)
+					{
+						tables = new HashSet<>();
+						directReferences.put(referencedTable, tables);
+					}
+
+					tables.add(tableName);
+				}
+			}
+			finally
+			{
+				cursor.close();
+			}
+		}
+
+		Map<String, Set<String>> referencingTables = new HashMap<>();
+
+		for (String referencedTable : directReferences.keySet())
+		{
+			Set<String> tables = new HashSet<>();
+			ArrayDeque<String> pending = new ArrayDeque<>(directReferences.get(referencedTable));
+
+			while (!pending.isEmpty())
+			{
+				String tableName = pending.poll();
+				Set<String> nextTables = directReferences.get(tableName.toLowerCase(Locale.US));
+
+				if (tables.add(tableName) && nextTables != null)
+				{
+					pending.addAll(nextTables);
+				}
+			}
+
+			referencingTables.put(referencedTable, tables);
+		}
+
+		return referencingTables;
+	}
+
+	/**
+	 * Returns true if the foreign key action changes the referencing rows.
+	 */
+	private static boolean changesReferencingRows(String action)
+	{
+		return "CASCADE".equalsIgnoreCase(action) || "SET NULL".equalsIgnoreCase(action) ||
+				"SET DEFAULT".equalsIgnoreCase(action);
+	}
+
+	/**
+	 * Returns true if the current operation should be measured.
+	 */
+	private boolean shouldSample()
+	{
+		if (mMetricsListener == null)
+		{
+			return false;
+		}
+
+		return (mOperationCounter.incrementAndGet() & Integer.MAX_VALUE) % mMetricsSampleInterval == 0;
+	}
+
+	/**
+	 * Passes the measurement of an operation to the metrics listener.
+	 */
+	private void recordOperation(int operation, UriRoute route, long startTime, int rowCount, int windowFills)
+	{
+		long duration = System.nanoTime() - startTime;
+		DbMetricsListener listener = mMetricsListener;
+
+		if (listener != null)
+		{
+			listener.onOperation(operation, route.getCollectionUri(), duration, rowCount, windowFills);
+		}
+	}
+
+	/**
+	 * Estimates the number of window fills needed to read the whole cursor, based on the rows in the first window.
+	 */
+	private static int estimateWindowFills(Cursor cursor, int rowCount)
+	{
+		// Cursors of the reader connections are wrapped
+		while (cursor instanceof CursorWrapper)
+		{
+			cursor = ((CursorWrapper) cursor).getWrappedCursor();
+		}
+
+		if (cursor instanceof AbstractWindowedCursor)
+		{
+			CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+
+			if (window != null && window.getNumRows() > 0)
+			{
+				return (rowCount + window.getNumRows() - 1) / window.getNumRows();
+			}
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Logs a warning for every full table scan in the plan of the given query.
+	 */
+	private void checkQueryPlan(String sql, String[] selectionArgs)
+	{
+		Cursor plan = dbHelper.getDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+
+		try
+		{
+			int detailIndex = plan.getColumnIndexOrThrow("detail");
+
+			while (plan.moveToNext())
+			{
+				String detail = plan.getString(detailIndex);
+
+				// Index scans are reported as "SCAN ... USING [COVERING] INDEX", anything else reads every row
+				if (detail != null && detail.startsWith("SCAN") && !detail.contains(" USING "))
+				{
+					Log.w("DbContentProvider", String.format("Full table scan (%s) in query: %s", detail, sql));
+				}
+			}
+		}
+		finally
+		{
+			plan.close();
+		}
+	}
+
+	/**
+	 * Returns the item id from the end of the given item uri.
+	 */
+	private static long parseId(Uri uri)
+	{
+		try
+		{
+			return Long.parseLong(uri.getLastPathSegment());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new DatabaseProviderException("Invalid uri: " + uri.toString(), e);
+		}
+	}
+
 	// endregion
 
 	// region Abstract methods
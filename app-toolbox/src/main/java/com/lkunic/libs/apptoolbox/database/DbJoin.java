@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbJoin.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 28/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares a read-only uri that joins the table of a base item type with the tables of related item types, so that
+ * related data is loaded with one query instead of a follow-up query per row. Item uris of the join select by the id
+ * of the base item type. Columns that exist in several joined tables have to be qualified with the table name in the
+ * projection and selection.
+ */
+public class DbJoin
+{
+	private String mUriPath;
+	private IQueryable mBaseType;
+
+	// Joined item types, used to notify the join uri when one of their tables changes
+	private List<IQueryable> mJoinedTypes = new ArrayList<>();
+	private StringBuilder mTables;
+
+	/**
+	 * Creates a join with the given base item type.
+	 * @param uriPath  Path of the join uri, must not be used by any item type or other join.
+	 * @param baseType Item type whose table the other tables are joined to.
+	 */
+	public static DbJoin create(String uriPath, IQueryable baseType)
+	{
+		DbJoin join = new DbJoin();
+
+		join.mUriPath = uriPath;
+		join.mBaseType = baseType;
+		join.mTables = new StringBuilder(baseType.getDatabaseTable().getTableName());
+
+		return join;
+	}
+
+	/**
+	 * Adds an inner join with the table of the given item type.
+	 * @param type        Joined item type.
+	 * @param constraint  Join constraint, e.g. "items.category_id = categories._id".
+	 */
+	public DbJoin join(IQueryable type, String constraint)
+	{
+		return addJoin("JOIN", type, constraint);
+	}
+
+	/**
+	 * Adds a left outer join with the table of the given item type, keeping base rows without a related row.
+	 * @param type        Joined item type.
+	 * @param constraint  Join constraint, e.g. "items.category_id = categories._id".
+	 */
+	public DbJoin leftJoin(IQueryable type, String constraint)
+	{
+		return addJoin("LEFT JOIN", type, constraint);
+	}
+
+	private DbJoin addJoin(String operator, IQueryable type, String constraint)
+	{
+		mTables.append(' ').append(operator).append(' ').append(type.getDatabaseTable().getTableName())
+				.append(" ON ").append(constraint);
+		mJoinedTypes.add(type);
+
+		return this;
+	}
+
+	/**
+	 * Returns the path of the join uri.
+	 */
+	public String getUriPath()
+	{
+		return mUriPath;
+	}
+
+	/**
+	 * Returns the item type whose table the other tables are joined to.
+	 */
+	IQueryable getBaseType()
+	{
+		return mBaseType;
+	}
+
+	/**
+	 * Returns the joined item types, not including the base type.
+	 */
+	List<IQueryable> getJoinedTypes()
+	{
+		return mJoinedTypes;
+	}
+
+	/**
+	 * Returns the join expression used as the query tables.
+	 */
+	String getTables()
+	{
+		return mTables.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbMetrics.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 15/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics listener that aggregates the sampled operations into latency histograms and row counters, per collection
+ * uri and operation type.
+ */
+public class DbMetrics implements DbMetricsListener
+{
+	private final ConcurrentMap<Uri, UriMetrics> mMetrics = new ConcurrentHashMap<>();
+
+	@Override
+	public void onOperation(int operation, Uri uri, long durationNanos, int rowCount, int windowFills)
+	{
+		UriMetrics metrics = mMetrics.get(uri);
+
+		if (metrics == null)
+		{
+			UriMetrics newMetrics = new UriMetrics();
+			metrics = mMetrics.putIfAbsent(uri, newMetrics);
+
+			if (metrics == null)
+			{
+				metrics = newMetrics;
+			}
+		}
+
+		metrics.latencies[operation].record(durationNanos);
+		metrics.rows[operation].addAndGet(rowCount);
+		metrics.windowFills[operation].addAndGet(windowFills);
+	}
+
+	/**
+	 * Returns the latency histogram of the operation on the given collection uri, or null if it wasn't sampled.
+	 */
+	public LatencyHistogram getLatencies(Uri uri, int operation)
+	{
+		UriMetrics metrics = mMetrics.get(uri);
+		return metrics == null ? null : metrics.latencies[operation];
+	}
+
+	/**
+	 * Returns the total number of rows returned or affected by the sampled operations on the given collection uri.
+	 */
+	public long getRowCount(Uri uri, int operation)
+	{
+		UriMetrics metrics = mMetrics.get(uri);
+		return metrics == null ? 0 : metrics.rows[operation].get();
+	}
+
+	/**
+	 * Returns the total number of cursor window fills of the sampled queries on the given collection uri.
+	 */
+	public long getWindowFillCount(Uri uri)
+	{
+		UriMetrics metrics = mMetrics.get(uri);
+		return metrics == null ? 0 : metrics.windowFills[OPERATION_QUERY].get();
+	}
+
+	/**
+	 * Discards all collected metrics.
+	 */
+	public void reset()
+	{
+		mMetrics.clear();
+	}
+
+	/**
+	 * Metrics of a single collection uri, indexed by operation type.
+	 */
+	private static class UriMetrics
+	{
+		public final LatencyHistogram[] latencies = new LatencyHistogram[OPERATION_COUNT];
+		public final AtomicLong[] rows = new AtomicLong[OPERATION_COUNT];
+		public final AtomicLong[] windowFills = new AtomicLong[OPERATION_COUNT];
+
+		public UriMetrics()
+		{
+			for (int i = 0; i < OPERATION_COUNT; i++)
+			{
+				latencies[i] = new LatencyHistogram();
+				rows[i] = new AtomicLong();
+				windowFills[i] = new AtomicLong();
+			}
+		}
+	}
+}
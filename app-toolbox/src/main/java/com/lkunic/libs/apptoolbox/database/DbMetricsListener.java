@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbMetricsListener.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 15/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+
+/**
+ * Listener receiving measurements of the operations sampled by a {@link DbContentProvider}. Called on the thread
+ * that executed the operation, so implementations should be fast and thread safe.
+ */
+public interface DbMetricsListener
+{
+	int OPERATION_QUERY = 0;
+	int OPERATION_INSERT = 1;
+	int OPERATION_UPDATE = 2;
+	int OPERATION_DELETE = 3;
+	int OPERATION_BULK_INSERT = 4;
+
+	// Number of operation types
+	int OPERATION_COUNT = 5;
+
+	/**
+	 * An operation has been measured.
+	 * @param operation     Type of the operation (one of the OPERATION_ constants).
+	 * @param uri           Collection uri of the item type the operation was executed on.
+	 * @param durationNanos Time the operation took, in nanoseconds. For queries this includes the first cursor
+	 *                      window fill.
+	 * @param rowCount      Number of rows returned by a query, or affected by a write.
+	 * @param windowFills   Number of cursor window fills needed to read the whole query result (estimated from
+	 *                      the rows that fit in the first window), 0 for writes.
+	 */
+	void onOperation(int operation, Uri uri, long durationNanos, int rowCount, int windowFills);
+}
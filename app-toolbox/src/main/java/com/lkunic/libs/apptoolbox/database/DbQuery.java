@@ -11,22 +11,69 @@
  */
 package com.lkunic.libs.apptoolbox.database;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A query that can be executed against a database.
  */
 public class DbQuery
 {
+	// Aggregate functions supported by aggregate(), aggregateBy() and their text variants
+	public static final String COUNT = "COUNT";
+	public static final String SUM = "SUM";
+	public static final String TOTAL = "TOTAL";
+	public static final String MIN = "MIN";
+	public static final String MAX = "MAX";
+	public static final String AVG = "AVG";
+
+	// Maximum number of bound arguments of a statement (SQLITE_MAX_VARIABLE_NUMBER)
+	static final int MAX_ARGUMENTS = 999;
+
+	// whereIn() lists are padded up to a power of two only up to this size, so padding never pushes a list that fits
+	// the argument limit over it
+	private static final int MAX_PADDED_IN_SIZE = 512;
+
 	private String[] mProjection;
 	private String mSelection;
+	private String[] mSelectionArgs;
 	private String mOrder;
 
+	// Conditions added with whereIn(), and their arguments
+	private String mInSelection;
+	private List<String> mInArgs = new ArrayList<>();
+
+	private int mLimit = -1;
+	private int mOffset;
+
+	// Full-text search query
+	private String mMatch;
+
+	private String mSeekColumn;
+	private Object mSeekValue;
+	private boolean mSeekAscending;
+
 	private Uri mUri;
 	private ContentResolver mResolver;
 
+	// Set if the query is executed directly against a provider in the same process
+	private LocalDbAccess mLocalAccess;
+
 	public static DbQuery create(ContentResolver resolver, Uri uri)
 	{
 		DbQuery query = new DbQuery();
@@ -37,9 +84,248 @@ public class DbQuery
 		return query;
 	}
 
+	/**
+	 * Creates a query that is executed directly against the database of a provider in the same process.
+	 */
+	public static DbQuery create(LocalDbAccess localAccess, Uri uri)
+	{
+		DbQuery query = new DbQuery();
+
+		query.mLocalAccess = localAccess;
+		query.mUri = uri;
+
+		return query;
+	}
+
+	/**
+	 * Returns a copy of this query that can be modified without affecting this one.
+	 */
+	public DbQuery copy()
+	{
+		DbQuery query = create(mResolver, mUri);
+
+		query.mLocalAccess = mLocalAccess;
+
+		query.mProjection = mProjection;
+		query.mSelection = mSelection;
+		query.mSelectionArgs = mSelectionArgs;
+		query.mOrder = mOrder;
+		query.mInSelection = mInSelection;
+		query.mInArgs = new ArrayList<>(mInArgs);
+		query.mLimit = mLimit;
+		query.mOffset = mOffset;
+		query.mMatch = mMatch;
+		query.mSeekColumn = mSeekColumn;
+		query.mSeekValue = mSeekValue;
+		query.mSeekAscending = mSeekAscending;
+
+		return query;
+	}
+
 	public Cursor execute()
 	{
-		return mResolver.query(mUri, mProjection, mSelection, null, mOrder);
+		List<String> args = new ArrayList<>();
+		String selection = buildSelection(args);
+
+		if (mLocalAccess != null)
+		{
+			return mLocalAccess.query(buildUri(), mProjection, selection, toArray(args), buildOrder());
+		}
+
+		return mResolver.query(buildUri(), mProjection, selection, toArray(args), buildOrder());
+	}
+
+	/**
+	 * Executes the query and maps all resulting rows using the given mapper. The cursor is closed afterwards.
+	 * @return The mapped objects, or an empty list if the provider returned no cursor.
+	 */
+	public <T> List<T> executeAndMap(CursorMapper<T> mapper)
+	{
+		Cursor cursor = execute();
+
+		if (cursor == null)
+		{
+			return new ArrayList<>();
+		}
+
+		try
+		{
+			return mapper.mapAll(cursor);
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Returns the number of rows matching the query, counted by the provider without loading the rows. The limit
+	 * and order of the query are ignored.
+	 */
+	public long count()
+	{
+		Number count = aggregate(COUNT, null);
+		return count != null ? count.longValue() : 0;
+	}
+
+	/**
+	 * Computes an aggregate over the rows matching the query in the provider, without loading the rows. The limit
+	 * and order of the query are ignored.
+	 * @param function One of COUNT, SUM, TOTAL, MIN, MAX or AVG.
+	 * @param column   Column the function is applied to, or null for all columns (only useful for COUNT).
+	 * @return A Long or a Double depending on the values, or null if there are no values (e.g. MAX of no rows).
+	 * @throws DatabaseProviderException If the value is text, use {@link #aggregateText(String, String)} for MIN or
+	 *                                   MAX of text columns.
+	 */
+	public Number aggregate(String function, String column)
+	{
+		Object value = callAggregate(function, column, null).get(DbContentProvider.EXTRA_RESULT);
+
+		if (value instanceof String)
+		{
+			throw new DatabaseProviderException("Aggregate value is text: " + function + "(" + column + ")");
+		}
+
+		return (Number) value;
+	}
+
+	/**
+	 * Computes an aggregate over the rows matching the query like {@link #aggregate(String, String)}, returning the
+	 * value as text. Used for MIN and MAX of text columns.
+	 * @return The value as text, or null if there are no values.
+	 */
+	public String aggregateText(String function, String column)
+	{
+		Object value = callAggregate(function, column, null).get(DbContentProvider.EXTRA_RESULT);
+		return value != null ? value.toString() : null;
+	}
+
+	/**
+	 * Computes an aggregate for every group of rows with the same value of the group column, without loading the
+	 * rows. The limit and order of the query are ignored.
+	 * @param function    One of COUNT, SUM, TOTAL, MIN, MAX or AVG.
+	 * @param column      Column the function is applied to, or null for all columns (only useful for COUNT).
+	 * @param groupColumn Column the rows are grouped by.
+	 * @return Values of the groups (Long or Double), keyed by the group column value.
+	 * @throws DatabaseProviderException If the values are text, use {@link #aggregateTextBy(String, String, String)}
+	 *                                   for MIN or MAX of text columns.
+	 */
+	public Map<String, Number> aggregateBy(String function, String column, String groupColumn)
+	{
+		Bundle result = callAggregate(function, column, groupColumn);
+		String[] keys = result.getStringArray(DbContentProvider.EXTRA_GROUP_KEYS);
+		Object values = result.get(DbContentProvider.EXTRA_RESULT);
+
+		if (values instanceof String[])
+		{
+			throw new DatabaseProviderException("Aggregate values are text: " + function + "(" + column + ")");
+		}
+
+		Map<String, Number> groups = new LinkedHashMap<>();
+
+		for (int i = 0; keys != null && i < keys.length; i++)
+		{
+			if (values instanceof long[])
+			{
+				groups.put(keys[i], ((long[]) values)[i]);
+			}
+			else
+			{
+				groups.put(keys[i], ((double[]) values)[i]);
+			}
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Computes an aggregate for every group of rows like {@link #aggregateBy(String, String, String)}, returning the
+	 * values as text. Used for MIN and MAX of text columns.
+	 * @return Values of the groups as text, keyed by the group column value.
+	 */
+	public Map<String, String> aggregateTextBy(String function, String column, String groupColumn)
+	{
+		Bundle result = callAggregate(function, column, groupColumn);
+		String[] keys = result.getStringArray(DbContentProvider.EXTRA_GROUP_KEYS);
+		Object values = result.get(DbContentProvider.EXTRA_RESULT);
+
+		Map<String, String> groups = new LinkedHashMap<>();
+
+		for (int i = 0; keys != null && i < keys.length; i++)
+		{
+			if (values instanceof String[])
+			{
+				groups.put(keys[i], ((String[]) values)[i]);
+			}
+			else if (values instanceof long[])
+			{
+				groups.put(keys[i], String.valueOf(((long[]) values)[i]));
+			}
+			else
+			{
+				groups.put(keys[i], String.valueOf(((double[]) values)[i]));
+			}
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Executes the query on a background thread and delivers the result to the listener on the main thread.
+	 * @param listener Listener that receives the resulting cursor and becomes responsible for closing it.
+	 * @return The running task, which can be used to cancel the query if its result is no longer needed.
+	 */
+	public QueryTask executeAsync(OnQueryCompletedListener listener)
+	{
+		// Later changes to this query don't affect the running one
+		QueryTask task = new QueryTask(copy(), listener);
+		task.start();
+
+		return task;
+	}
+
+	/**
+	 * Executes the query off the main thread and again whenever its data changes, delivering only results that
+	 * differ from the previous one. Changes arriving within the debounce time of each other cause one execution.
+	 * @param debounceMillis Time in milliseconds to wait for further changes before the query is executed again.
+	 * @param listener       Listener that receives the results on the main thread, and becomes responsible for
+	 *                       closing them.
+	 * @return The observer, which has to be stopped when the results are no longer needed.
+	 */
+	public QueryObserver observe(long debounceMillis, OnQueryCompletedListener listener)
+	{
+		ContentResolver resolver = mResolver != null ? mResolver :
+				mLocalAccess.getProvider().getContext().getContentResolver();
+
+		// Later changes to this query don't affect the observed one
+		QueryObserver observer = new QueryObserver(copy(), resolver, mUri.buildUpon().clearQuery().build(),
+				debounceMillis, listener);
+		observer.start();
+
+		return observer;
+	}
+
+	/**
+	 * Executes the query, passing the cancellation signal to the content provider if it is supported.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	Cursor execute(CancellationSignal cancellationSignal)
+	{
+		if (cancellationSignal == null)
+		{
+			return execute();
+		}
+
+		List<String> args = new ArrayList<>();
+		String selection = buildSelection(args);
+
+		if (mLocalAccess != null)
+		{
+			return mLocalAccess.getProvider().query(buildUri(), mProjection, selection, toArray(args), buildOrder(),
+					cancellationSignal);
+		}
+
+		return mResolver.query(buildUri(), mProjection, selection, toArray(args), buildOrder(), cancellationSignal);
 	}
 
 	public DbQuery withColumns(String... columns)
@@ -48,9 +334,100 @@ public class DbQuery
 		return this;
 	}
 
+	/**
+	 * Uses the columns read by the mapper as the query projection.
+	 */
+	public DbQuery withColumns(CursorMapper<?> mapper)
+	{
+		this.mProjection = mapper.getColumns();
+		return this;
+	}
+
 	public DbQuery select(String selection)
 	{
 		this.mSelection = selection;
+		this.mSelectionArgs = null;
+		return this;
+	}
+
+	/**
+	 * Sets the selection with arguments bound to its '?' placeholders. Binding the values instead of concatenating
+	 * them into the selection lets SQLite reuse the compiled statement for different values.
+	 *
+	 * The content provider API only passes selection arguments as strings, so every value is bound as TEXT. Columns
+	 * declared as INTEGER or REAL convert the text before comparing, but comparisons against columns without a type
+	 * affinity or against expressions (e.g. "count + 1 > ?") compare the value as text.
+	 * @param selection Selection clause with a '?' placeholder for each argument.
+	 * @param args      Values of the placeholders, in order. Booleans are bound as 1 or 0.
+	 */
+	public DbQuery select(String selection, Object... args)
+	{
+		String[] selectionArgs = new String[args.length];
+
+		for (int i = 0; i < args.length; i++)
+		{
+			selectionArgs[i] = toArgument(args[i]);
+		}
+
+		this.mSelection = selection;
+		this.mSelectionArgs = selectionArgs;
+		return this;
+	}
+
+	/**
+	 * Adds a condition selecting the rows where the column has one of the given values. The number of placeholders
+	 * is rounded up to a power of two (repeating the last value), so lists of similar size share a compiled statement.
+	 * Lists of more than 512 values are not padded. Like with select(), the values are bound as TEXT.
+	 * @param column Column to check.
+	 * @param values Allowed values, can not be empty and can contain at most 999 values (the SQLite limit of bound
+	 *               arguments, which also includes the other arguments of the query).
+	 */
+	public DbQuery whereIn(String column, Collection<?> values)
+	{
+		if (values.isEmpty())
+		{
+			throw new IllegalArgumentException("The list of values can not be empty");
+		}
+
+		if (values.size() > MAX_ARGUMENTS)
+		{
+			throw new IllegalArgumentException(String.format("The list of values can not contain more than %d " +
+					"values, got %d", MAX_ARGUMENTS, values.size()));
+		}
+
+		int placeholderCount = Integer.highestOneBit(values.size());
+		if (placeholderCount < values.size())
+		{
+			placeholderCount <<= 1;
+		}
+
+		if (placeholderCount > MAX_PADDED_IN_SIZE)
+		{
+			placeholderCount = values.size();
+		}
+
+		StringBuilder condition = new StringBuilder(column).append(" IN (");
+		String argument = null;
+
+		for (Object value : values)
+		{
+			argument = toArgument(value);
+			mInArgs.add(argument);
+		}
+
+		for (int i = 0; i < placeholderCount; i++)
+		{
+			condition.append(i == 0 ? "?" : ",?");
+
+			if (i >= values.size())
+			{
+				mInArgs.add(argument);
+			}
+		}
+
+		condition.append(')');
+
+		this.mInSelection = DatabaseUtils.concatenateWhere(mInSelection, condition.toString());
 		return this;
 	}
 
@@ -59,4 +436,191 @@ public class DbQuery
 		this.mOrder = order;
 		return this;
 	}
+
+	/**
+	 * Selects the rows matching the full-text search query. Only supported for tables extending
+	 * {@link FtsDatabaseTable}, the query uses the SQLite FTS syntax (e.g. "word*" for prefix matches).
+	 */
+	public DbQuery match(String query)
+	{
+		this.mMatch = query;
+		return this;
+	}
+
+	/**
+	 * Limits the number of returned rows.
+	 */
+	public DbQuery limit(int limit)
+	{
+		return limit(limit, 0);
+	}
+
+	/**
+	 * Limits the number of returned rows, skipping the given number of rows first. Large offsets still have to step
+	 * over all skipped rows, use seek() to page through big tables.
+	 */
+	public DbQuery limit(int limit, int offset)
+	{
+		this.mLimit = limit;
+		this.mOffset = offset;
+		return this;
+	}
+
+	/**
+	 * Orders the results by the given column and only returns rows that come after the given value (keyset
+	 * pagination). Pass the key of the last row of the previous page to get the next page, or null to get the first
+	 * one. The column should be unique (e.g. the id column) so that no rows are skipped, and replaces the order set
+	 * with orderBy().
+	 * @param column    Column the rows are ordered by.
+	 * @param value     Key of the last row of the previous page, or null for the first page.
+	 * @param ascending True for ascending order, false for descending order.
+	 */
+	public DbQuery seek(String column, Object value, boolean ascending)
+	{
+		this.mSeekColumn = column;
+		this.mSeekValue = value;
+		this.mSeekAscending = ascending;
+		return this;
+	}
+
+	/**
+	 * Executes the aggregate call of the provider.
+	 * @throws DatabaseProviderException If the provider returned no result.
+	 */
+	private Bundle callAggregate(String function, String column, String groupColumn)
+	{
+		List<String> args = new ArrayList<>();
+
+		Bundle extras = new Bundle();
+		extras.putParcelable(DbContentProvider.EXTRA_URI, buildUri());
+		extras.putString(DbContentProvider.EXTRA_FUNCTION, function);
+		extras.putString(DbContentProvider.EXTRA_COLUMN, column);
+		extras.putString(DbContentProvider.EXTRA_SELECTION, buildSelection(args));
+		extras.putStringArray(DbContentProvider.EXTRA_SELECTION_ARGS, toArray(args));
+		extras.putString(DbContentProvider.EXTRA_GROUP_BY, groupColumn);
+
+		Bundle result = mLocalAccess != null ? mLocalAccess.call(DbContentProvider.METHOD_AGGREGATE, extras) :
+				mResolver.call(mUri, DbContentProvider.METHOD_AGGREGATE, null, extras);
+
+		if (result == null)
+		{
+			throw new DatabaseProviderException("No aggregate result for uri: " + mUri.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the query uri, with the limit and search query appended as query parameters if they are set.
+	 */
+	private Uri buildUri()
+	{
+		if (mLimit < 0 && mMatch == null)
+		{
+			return mUri;
+		}
+
+		Uri.Builder builder = mUri.buildUpon();
+
+		if (mLimit >= 0)
+		{
+			String limit = mOffset > 0 ? mOffset + "," + mLimit : String.valueOf(mLimit);
+			builder.appendQueryParameter(DbContentProvider.QUERY_PARAMETER_LIMIT, limit);
+		}
+
+		if (mMatch != null)
+		{
+			builder.appendQueryParameter(DbContentProvider.QUERY_PARAMETER_MATCH, mMatch);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Returns the selection combined with the whereIn() and keyset conditions.
+	 * @param args List that receives the selection arguments, in placeholder order.
+	 */
+	private String buildSelection(List<String> args)
+	{
+		String selection = mSelection;
+
+		if (mSelectionArgs != null)
+		{
+			Collections.addAll(args, mSelectionArgs);
+		}
+
+		if (mInSelection != null)
+		{
+			selection = DatabaseUtils.concatenateWhere(selection, mInSelection);
+			args.addAll(mInArgs);
+		}
+
+		if (mSeekColumn != null && mSeekValue != null)
+		{
+			selection = DatabaseUtils.concatenateWhere(selection, mSeekColumn + (mSeekAscending ? " > ?" : " < ?"));
+			args.add(toArgument(mSeekValue));
+		}
+
+		if (args.size() > MAX_ARGUMENTS)
+		{
+			throw new IllegalStateException(String.format("Query has %d selection arguments, SQLite supports at " +
+					"most %d", args.size(), MAX_ARGUMENTS));
+		}
+
+		return selection;
+	}
+
+	/**
+	 * Converts the value to a selection argument.
+	 */
+	private static String toArgument(Object value)
+	{
+		if (value == null)
+		{
+			throw new IllegalArgumentException("Null can not be bound as an argument, use IS NULL instead");
+		}
+
+		if (value instanceof Boolean)
+		{
+			return (Boolean) value ? "1" : "0";
+		}
+
+		return value.toString();
+	}
+
+	private static String[] toArray(List<String> args)
+	{
+		return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * Returns the sort order, which is given by the keyset column if there is one.
+	 */
+	private String buildOrder()
+	{
+		if (mSeekColumn == null)
+		{
+			return mOrder;
+		}
+
+		return mSeekColumn + (mSeekAscending ? " ASC" : " DESC");
+	}
+
+	/**
+	 * Listener notified on the main thread when an asynchronous query finishes. Not called for cancelled queries.
+	 */
+	public interface OnQueryCompletedListener
+	{
+		/**
+		 * The query has completed.
+		 * @param cursor The resulting cursor, or null if the provider returned no cursor.
+		 */
+		void onQueryCompleted(Cursor cursor);
+
+		/**
+		 * The query has failed.
+		 * @param e Exception thrown while executing the query.
+		 */
+		void onQueryFailed(Exception e);
+	}
 }
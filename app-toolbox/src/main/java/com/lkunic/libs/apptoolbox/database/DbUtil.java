@@ -11,8 +11,26 @@
  */
 package com.lkunic.libs.apptoolbox.database;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class for executing database operations.
@@ -62,4 +80,281 @@ public class DbUtil
 	{
 		return resolver.delete(queryable.getItemUri(), null, null);
 	}
+
+	/**
+	 * Inserts all of the given IQueryable objects into the database. Items of the same type are inserted with a
+	 * single bulk insert, which runs in one transaction and notifies about the change only once.
+	 * @param resolver    Content resolver to use when accessing the database.
+	 * @param queryables  The IQueryable objects to insert into the database.
+	 * @return Number of inserted rows.
+	 */
+	public static int insertAll(ContentResolver resolver, Collection<? extends IQueryable> queryables)
+	{
+		int insertedRows = 0;
+
+		for (Map.Entry<Uri, List<ContentValues>> entry : groupByCollectionUri(queryables).entrySet())
+		{
+			List<ContentValues> values = entry.getValue();
+			insertedRows += resolver.bulkInsert(entry.getKey(), values.toArray(new ContentValues[values.size()]));
+		}
+
+		return insertedRows;
+	}
+
+	/**
+	 * Inserts the given IQueryable object, handling an existing row with the given strategy instead of failing. The
+	 * row is written with a single provider call, without querying it first.
+	 * @param resolver         Content resolver to use when accessing the database.
+	 * @param queryable        The IQueryable object to write into the database.
+	 * @param conflictStrategy How an existing row is handled.
+	 * @return The id of the inserted or updated item, or -1 if the item was ignored.
+	 */
+	public static long upsert(ContentResolver resolver, IQueryable queryable, ConflictStrategy conflictStrategy)
+	{
+		Uri resultUri = resolver.insert(conflictStrategy.appendTo(queryable.getCollectionUri()),
+				queryable.getContentValues());
+
+		if (resultUri != null)
+		{
+			return Long.parseLong(resultUri.getLastPathSegment());
+		}
+		else
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Inserts all of the given IQueryable objects, handling existing rows with the given strategy. Items of the same
+	 * type are written with a single bulk insert, which runs in one transaction and notifies about the change only
+	 * once.
+	 * @param resolver         Content resolver to use when accessing the database.
+	 * @param queryables       The IQueryable objects to write into the database.
+	 * @param conflictStrategy How existing rows are handled.
+	 * @return Number of inserted or updated rows (ignored rows are not counted).
+	 */
+	public static int upsertAll(ContentResolver resolver, Collection<? extends IQueryable> queryables,
+			ConflictStrategy conflictStrategy)
+	{
+		int writtenRows = 0;
+
+		for (Map.Entry<Uri, List<ContentValues>> entry : groupByCollectionUri(queryables).entrySet())
+		{
+			List<ContentValues> values = entry.getValue();
+			writtenRows += resolver.bulkInsert(conflictStrategy.appendTo(entry.getKey()),
+					values.toArray(new ContentValues[values.size()]));
+		}
+
+		return writtenRows;
+	}
+
+	/**
+	 * Updates all of the given IQueryable objects in the database as a single batch. Uses the item ids for selection.
+	 * @param resolver   Content resolver to use when accessing the database.
+	 * @param queryables The IQueryable objects to update.
+	 * @return Number of updated rows.
+	 */
+	public static int updateAll(ContentResolver resolver, Collection<? extends IQueryable> queryables)
+	{
+		Map<String, ArrayList<ContentProviderOperation>> operations = new LinkedHashMap<>();
+
+		for (IQueryable queryable : queryables)
+		{
+			Uri uri = queryable.getItemUri();
+
+			getOperations(operations, uri).add(ContentProviderOperation.newUpdate(uri)
+					.withValues(queryable.getContentValues())
+					.build());
+		}
+
+		return applyBatch(resolver, operations);
+	}
+
+	/**
+	 * Deletes all of the given IQueryable objects from the database as a single batch. Uses the item ids for
+	 * selection.
+	 * @param resolver   Content resolver to use when accessing the database.
+	 * @param queryables The IQueryable objects to delete.
+	 * @return Number of deleted rows.
+	 */
+	public static int deleteAll(ContentResolver resolver, Collection<? extends IQueryable> queryables)
+	{
+		Map<String, ArrayList<ContentProviderOperation>> operations = new LinkedHashMap<>();
+
+		for (IQueryable queryable : queryables)
+		{
+			Uri uri = queryable.getItemUri();
+			getOperations(operations, uri).add(ContentProviderOperation.newDelete(uri).build());
+		}
+
+		return applyBatch(resolver, operations);
+	}
+
+	/**
+	 * Exports all tables of the provider with the given authority to a binary snapshot file. The file is opened by
+	 * the calling application and passed to the provider as a file descriptor.
+	 * @param resolver  Content resolver to use when accessing the database.
+	 * @param authority Authority of the database content provider.
+	 * @param file      File the snapshot is written to, created or truncated.
+	 * @return Number of exported rows.
+	 */
+	public static int exportSnapshot(ContentResolver resolver, String authority, File file)
+	{
+		return callSnapshot(resolver, authority, DbContentProvider.METHOD_EXPORT_SNAPSHOT, file,
+				ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE |
+						ParcelFileDescriptor.MODE_TRUNCATE);
+	}
+
+	/**
+	 * Imports a binary snapshot file into the database of the provider with the given authority, e.g. a snapshot
+	 * downloaded from the server. All rows are inserted in one transaction. The file is opened by the calling
+	 * application and passed to the provider as a file descriptor.
+	 * @param resolver  Content resolver to use when accessing the database.
+	 * @param authority Authority of the database content provider.
+	 * @param file      Snapshot file.
+	 * @return Number of imported rows.
+	 */
+	public static int importSnapshot(ContentResolver resolver, String authority, File file)
+	{
+		return callSnapshot(resolver, authority, DbContentProvider.METHOD_IMPORT_SNAPSHOT, file,
+				ParcelFileDescriptor.MODE_READ_ONLY);
+	}
+
+	/**
+	 * Imports a binary snapshot bundled in the assets of the provider application, e.g. to seed a fresh install.
+	 * All rows are inserted in one transaction.
+	 * @param resolver  Content resolver to use when accessing the database.
+	 * @param authority Authority of the database content provider.
+	 * @param assetPath Path of the snapshot in the assets folder.
+	 * @return Number of imported rows.
+	 */
+	public static int importSnapshotFromAssets(ContentResolver resolver, String authority, String assetPath)
+	{
+		Bundle extras = new Bundle();
+		extras.putString(DbContentProvider.EXTRA_ASSET, assetPath);
+
+		return callSnapshot(resolver, authority, DbContentProvider.METHOD_IMPORT_SNAPSHOT, extras);
+	}
+
+	/**
+	 * Executes a snapshot call of the provider and returns the number of rows in the snapshot.
+	 */
+	private static int callSnapshot(ContentResolver resolver, String authority, String method, Bundle extras)
+	{
+		Uri uri = new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(authority).build();
+		Bundle result = resolver.call(uri, method, null, extras);
+
+		if (result == null)
+		{
+			throw new DatabaseProviderException("No snapshot result for authority: " + authority);
+		}
+
+		return (int) result.getLong(DbContentProvider.EXTRA_RESULT);
+	}
+
+	/**
+	 * Opens the file in the given mode and executes a snapshot call of the provider with its file descriptor.
+	 */
+	private static int callSnapshot(ContentResolver resolver, String authority, String method, File file, int mode)
+	{
+		ParcelFileDescriptor fileDescriptor;
+
+		try
+		{
+			fileDescriptor = ParcelFileDescriptor.open(file, mode);
+		}
+		catch (FileNotFoundException e)
+		{
+			throw new DatabaseProviderException("Could not open snapshot file: " + file, e);
+		}
+
+		try
+		{
+			Bundle extras = new Bundle();
+			extras.putParcelable(DbContentProvider.EXTRA_FILE, fileDescriptor);
+
+			return callSnapshot(resolver, authority, method, extras);
+		}
+		finally
+		{
+			// The provider closes its copy of the descriptor, or this one if it runs in the same process
+			try
+			{
+				fileDescriptor.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing was written through this descriptor
+			}
+		}
+	}
+
+	/**
+	 * Groups the values of the given items by item type, keeping the original order within each type.
+	 */
+	private static Map<Uri, List<ContentValues>> groupByCollectionUri(Collection<? extends IQueryable> queryables)
+	{
+		Map<Uri, List<ContentValues>> valuesByUri = new LinkedHashMap<>();
+
+		for (IQueryable queryable : queryables)
+		{
+			List<ContentValues> values = valuesByUri.get(queryable.getCollectionUri());
+
+			if (values == null)
+			{
+				values = new ArrayList<>();
+				valuesByUri.put(queryable.getCollectionUri(), values);
+			}
+
+			values.add(queryable.getContentValues());
+		}
+
+		return valuesByUri;
+	}
+
+	/**
+	 * Returns the list of operations for the authority of the given uri, creating it if needed.
+	 */
+	private static ArrayList<ContentProviderOperation> getOperations(
+			Map<String, ArrayList<ContentProviderOperation>> operations, Uri uri)
+	{
+		ArrayList<ContentProviderOperation> authorityOperations = operations.get(uri.getAuthority());
+
+		if (authorityOperations == null)
+		{
+			authorityOperations = new ArrayList<>();
+			operations.put(uri.getAuthority(), authorityOperations);
+		}
+
+		return authorityOperations;
+	}
+
+	/**
+	 * Applies the given operations as one batch per authority.
+	 * @return Total number of affected rows.
+	 */
+	private static int applyBatch(ContentResolver resolver, Map<String, ArrayList<ContentProviderOperation>> operations)
+	{
+		int affectedRows = 0;
+
+		try
+		{
+			for (Map.Entry<String, ArrayList<ContentProviderOperation>> entry : operations.entrySet())
+			{
+				for (ContentProviderResult result : resolver.applyBatch(entry.getKey(), entry.getValue()))
+				{
+					if (result.count != null)
+					{
+						affectedRows += result.count;
+					}
+				}
+			}
+		}
+		catch (RemoteException | OperationApplicationException e)
+		{
+			throw new DatabaseProviderException("Batch not applied. See inner exception for details", e);
+		}
+
+		return affectedRows;
+	}
 }
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbWriter.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 12/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executes writes from any thread on a single writer thread. Writes arriving within a short window of each other are
+ * applied as one batch, which commits them in a single transaction and notifies about the changes once (group
+ * commit). If a batch fails, its writes are applied one by one, so a single failing write doesn't fail the others.
+ */
+public class DbWriter
+{
+	// Maximum number of writes committed in one transaction
+	private static final int MAX_GROUP_SIZE = 256;
+
+	private final ContentResolver mResolver;
+	private final String mAuthority;
+	private final long mWindowMillis;
+
+	private final LinkedBlockingQueue<WriteRequest<?>> mQueue = new LinkedBlockingQueue<>();
+	private final Thread mThread;
+
+	private volatile boolean mShutdown;
+
+	/**
+	 * @param resolver     Content resolver used to apply the writes.
+	 * @param authority    Authority of the database content provider, all written uris have to belong to it.
+	 * @param windowMillis Time in milliseconds the writer waits for more writes after the first write of a group.
+	 */
+	public DbWriter(ContentResolver resolver, String authority, long windowMillis)
+	{
+		mResolver = resolver;
+		mAuthority = authority;
+		mWindowMillis = windowMillis;
+
+		mThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				processRequests();
+			}
+		}, "DbWriter " + authority);
+
+		mThread.start();
+	}
+
+	/**
+	 * Queues the insert of the given IQueryable object.
+	 * @return Future completed with the inserted item id.
+	 */
+	public Future<Long> insert(IQueryable queryable)
+	{
+		return submit(new WriteRequest<Long>(ContentProviderOperation.newInsert(queryable.getCollectionUri())
+				.withValues(queryable.getContentValues())
+				.build(), true));
+	}
+
+	/**
+	 * Queues the insert of the given IQueryable object, replacing or updating an existing row. Ignoring existing
+	 * rows is not supported, as batches fail on inserts that don't return an item uri.
+	 * @return Future completed with the inserted or updated item id.
+	 */
+	public Future<Long> upsert(IQueryable queryable, ConflictStrategy conflictStrategy)
+	{
+		if (!conflictStrategy.isReplace() && !conflictStrategy.isUpdate())
+		{
+			throw new IllegalArgumentException("Only replace and update conflict strategies are supported");
+		}
+
+		return submit(new WriteRequest<Long>(ContentProviderOperation
+				.newInsert(conflictStrategy.appendTo(queryable.getCollectionUri()))
+				.withValues(queryable.getContentValues())
+				.build(), true));
+	}
+
+	/**
+	 * Queues the update of the given IQueryable object. Uses the item id for selection.
+	 * @return Future completed with the number of updated rows.
+	 */
+	public Future<Integer> update(IQueryable queryable)
+	{
+		return submit(new WriteRequest<Integer>(ContentProviderOperation.newUpdate(queryable.getItemUri())
+				.withValues(queryable.getContentValues())
+				.build(), false));
+	}
+
+	/**
+	 * Queues the delete of the given IQueryable object. Uses the item id for selection.
+	 * @return Future completed with the number of deleted rows.
+	 */
+	public Future<Integer> delete(IQueryable queryable)
+	{
+		return submit(new WriteRequest<Integer>(ContentProviderOperation.newDelete(queryable.getItemUri()).build(),
+				false));
+	}
+
+	/**
+	 * Stops accepting writes. Writes that are already queued are still applied.
+	 */
+	public void shutdown()
+	{
+		synchronized (mQueue)
+		{
+			mShutdown = true;
+		}
+
+		mThread.interrupt();
+	}
+
+	private <T> Future<T> submit(WriteRequest<T> request)
+	{
+		if (!mAuthority.equals(request.operation.getUri().getAuthority()))
+		{
+			throw new IllegalArgumentException("Uri doesn't belong to " + mAuthority + ": " +
+					request.operation.getUri());
+		}
+
+		// Queued before the shutdown flag is set, so the writer thread applies it before stopping
+		synchronized (mQueue)
+		{
+			if (mShutdown)
+			{
+				throw new IllegalStateException("Writer has been shut down");
+			}
+
+			mQueue.add(request);
+		}
+
+		return request;
+	}
+
+	/**
+	 * Loop of the writer thread, applies the queued writes in groups until the writer is shut down.
+	 */
+	private void processRequests()
+	{
+		List<WriteRequest<?>> group = new ArrayList<>();
+
+		while (!mShutdown || !mQueue.isEmpty())
+		{
+			try
+			{
+				collectGroup(group);
+			}
+			catch (InterruptedException e)
+			{
+				// Interrupted by shutdown, the queued writes are applied without waiting
+				mQueue.drainTo(group, MAX_GROUP_SIZE - group.size());
+			}
+
+			if (!group.isEmpty())
+			{
+				applyGroup(group);
+				group.clear();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the first write, then collects the writes arriving within the window.
+	 */
+	private void collectGroup(List<WriteRequest<?>> group) throws InterruptedException
+	{
+		group.add(mQueue.take());
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mWindowMillis);
+
+		while (group.size() < MAX_GROUP_SIZE)
+		{
+			long remaining = deadline - System.nanoTime();
+
+			WriteRequest<?> request = remaining > 0 ? mQueue.poll(remaining, TimeUnit.NANOSECONDS) : mQueue.poll();
+			if (request == null)
+			{
+				break;
+			}
+
+			group.add(request);
+		}
+	}
+
+	private void applyGroup(List<WriteRequest<?>> group)
+	{
+		ArrayList<ContentProviderOperation> operations = new ArrayList<>(group.size());
+
+		for (WriteRequest<?> request : group)
+		{
+			operations.add(request.operation);
+		}
+
+		ContentProviderResult[] results;
+
+		try
+		{
+			results = mResolver.applyBatch(mAuthority, operations);
+		}
+		catch (Exception e)
+		{
+			if (group.size() == 1)
+			{
+				group.get(0).fail(e);
+				return;
+			}
+
+			// Find the failing writes by applying the writes of the group one by one
+			for (WriteRequest<?> request : group)
+			{
+				applyGroup(Collections.<WriteRequest<?>>singletonList(request));
+			}
+
+			return;
+		}
+
+		// The batch has been committed, so a failure from here on must not apply the writes again
+		for (int i = 0; i < group.size(); i++)
+		{
+			WriteRequest<?> request = group.get(i);
+
+			try
+			{
+				request.complete(results[i]);
+			}
+			catch (RuntimeException e)
+			{
+				// The write has been applied, but its result can't be read
+				request.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * A queued write, which is also the future completed with its result.
+	 */
+	private static class WriteRequest<T> implements Future<T>
+	{
+		public final ContentProviderOperation operation;
+
+		// True if the result is the id of the inserted item, false if it is the number of affected rows
+		private final boolean mInsert;
+
+		private final CountDownLatch mDone = new CountDownLatch(1);
+		private Object mResult;
+		private Exception mException;
+
+		public WriteRequest(ContentProviderOperation operation, boolean insert)
+		{
+			this.operation = operation;
+			mInsert = insert;
+		}
+
+		public void complete(ContentProviderResult result)
+		{
+			if (mInsert)
+			{
+				Uri uri = result.uri;
+				mResult = uri != null ? ContentUris.parseId(uri) : -1L;
+			}
+			else
+			{
+				mResult = result.count != null ? result.count : 0;
+			}
+
+			mDone.countDown();
+		}
+
+		public void fail(Exception e)
+		{
+			mException = e;
+			mDone.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			// Queued writes are always applied
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return mDone.getCount() == 0;
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException
+		{
+			mDone.await();
+			return getResult();
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if (!mDone.await(timeout, unit))
+			{
+				throw new TimeoutException();
+			}
+
+			return getResult();
+		}
+
+		@SuppressWarnings("unchecked")
+		private T getResult() throws ExecutionException
+		{
+			if (mException != null)
+			{
+				throw new ExecutionException(new DatabaseProviderException("Write not applied. See inner exception " +
+						"for details.", mException));
+			}
+
+			return (T) mResult;
+		}
+	}
+}
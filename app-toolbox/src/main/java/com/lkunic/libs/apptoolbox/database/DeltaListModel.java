@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DeltaListModel.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 19/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory list of the items returned by a query, kept up to date by applying the change sets of the change
+ * notifications instead of executing the whole query again. Only the changed rows are loaded, and rows that are new
+ * to the list are added to its end. Meant for queries without a limit, and for lists whose order doesn't have to be
+ * kept exact between full reloads.
+ *
+ * The model is not thread-safe. Load and apply the changes on a single background thread (both execute queries), and
+ * pass the snapshots returned by {@link #getItems()} to the main thread.
+ * @param <T> Type of the list items.
+ */
+public class DeltaListModel<T>
+{
+	private final DbQuery mQuery;
+	private final String mIdColumn;
+	private final CursorMapper<T> mMapper;
+	private final String[] mProjection;
+
+	// Items in list order keyed by their ids, so changed rows are found and removed without scanning the list
+	private final LinkedHashMap<Long, T> mItems = new LinkedHashMap<>();
+
+	/**
+	 * @param query    Query returning the list items.
+	 * @param idColumn Column containing the item ids, which are the ids in the change sets. The ids have to be unique
+	 *                 within the query result.
+	 * @param mapper   Mapper creating the items from the query rows.
+	 */
+	public DeltaListModel(DbQuery query, String idColumn, CursorMapper<T> mapper)
+	{
+		mQuery = query;
+		mIdColumn = idColumn;
+		mMapper = mapper;
+
+		// The id column is needed to match the rows to the change sets
+		String[] columns = mapper.getColumns();
+
+		if (Arrays.asList(columns).contains(idColumn))
+		{
+			mProjection = columns;
+		}
+		else
+		{
+			mProjection = Arrays.copyOf(columns, columns.length + 1);
+			mProjection[columns.length] = idColumn;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the current list items.
+	 */
+	public List<T> getItems()
+	{
+		return new ArrayList<>(mItems.values());
+	}
+
+	/**
+	 * Loads all items, replacing the current ones.
+	 */
+	public void load()
+	{
+		mItems.clear();
+
+		Cursor cursor = mQuery.copy().withColumns(mProjection).execute();
+
+		if (cursor == null)
+		{
+			return;
+		}
+
+		try
+		{
+			int idIndex = cursor.getColumnIndexOrThrow(mIdColumn);
+
+			while (cursor.moveToNext())
+			{
+				mItems.put(cursor.getLong(idIndex), mMapper.map(cursor));
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Applies the changes to the list, loading only the inserted and updated rows. Incomplete change sets reload all
+	 * items.
+	 * @return True if the list changed.
+	 */
+	public boolean apply(ChangeSet changeSet)
+	{
+		if (!changeSet.isComplete())
+		{
+			load();
+			return true;
+		}
+
+		boolean changed = false;
+
+		for (Long id : changeSet.getDeletedIds())
+		{
+			changed |= remove(id);
+		}
+
+		Set<Long> changedIds = new LinkedHashSet<>(changeSet.getInsertedIds());
+		changedIds.addAll(changeSet.getUpdatedIds());
+
+		if (changedIds.isEmpty())
+		{
+			return changed;
+		}
+
+		// Load the changed rows that still match the query
+		Cursor cursor = mQuery.copy().withColumns(mProjection).whereIn(mIdColumn, changedIds).execute();
+		Set<Long> loadedIds = new HashSet<>();
+
+		if (cursor != null)
+		{
+			try
+			{
+				int idIndex = cursor.getColumnIndexOrThrow(mIdColumn);
+
+				while (cursor.moveToNext())
+				{
+					long id = cursor.getLong(idIndex);
+					T item = mMapper.map(cursor);
+
+					// Updated items keep their position, new items are added to the end
+					T previousItem = mItems.put(id, item);
+					changed |= previousItem == null || !previousItem.equals(item);
+
+					loadedIds.add(id);
+				}
+			}
+			finally
+			{
+				cursor.close();
+			}
+		}
+
+		// Updated rows that are not returned anymore no longer match the query selection
+		for (Long id : changedIds)
+		{
+			if (!loadedIds.contains(id))
+			{
+				changed |= remove(id);
+			}
+		}
+
+		return changed;
+	}
+
+	private boolean remove(Long id)
+	{
+		if (!mItems.containsKey(id))
+		{
+			return false;
+		}
+
+		mItems.remove(id);
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "FtsDatabaseTable.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 21/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+/**
+ * Template for a database table with a full-text search index over some of its columns. The index is a shadow FTS4
+ * table kept in sync with the content table by triggers, and is searched using {@link DbQuery#match(String)}.
+ */
+public abstract class FtsDatabaseTable extends DatabaseTable
+{
+	/**
+	 * Creates the content table and its full-text index.
+	 * @param db Database instance to use when creating the table
+	 */
+	@Override
+	public void createTable(SQLiteDatabase db)
+	{
+		super.createTable(db);
+		createSearchIndex(db);
+	}
+
+	/**
+	 * Drops the full-text index and the content table (which also drops the triggers).
+	 * @param db Database instance to use when destroying the table
+	 */
+	@Override
+	public void dropTable(SQLiteDatabase db)
+	{
+		db.execSQL("DROP TABLE IF EXISTS " + getFtsTableName());
+		super.dropTable(db);
+	}
+
+	/**
+	 * Creates the full-text index with its synchronization triggers, and indexes the rows already in the table.
+	 * Can be used from a migration step when adding full-text search to an existing table.
+	 * @param db Database instance to use when creating the index
+	 */
+	public void createSearchIndex(SQLiteDatabase db)
+	{
+		String tableName = getTableName();
+		String ftsTableName = getFtsTableName();
+		String columns = TextUtils.join(", ", getSearchableColumns());
+
+		db.execSQL("CREATE VIRTUAL TABLE " + ftsTableName + " USING fts4(" + columns + ")");
+		createSearchTriggers(db);
+
+		db.execSQL("INSERT INTO " + ftsTableName + " (docid, " + columns + ") SELECT " + getIdColumn() + ", " +
+				columns + " FROM " + tableName);
+	}
+
+	/**
+	 * Creates the triggers keeping the full-text index in sync with the content table, replacing the existing ones.
+	 * Can be used from a migration step to update the triggers of an index created by an earlier version, e.g. when
+	 * the searchable columns change.
+	 * @param db Database instance to use when creating the triggers
+	 */
+	public void createSearchTriggers(SQLiteDatabase db)
+	{
+		String tableName = getTableName();
+		String ftsTableName = getFtsTableName();
+		String idColumn = getIdColumn();
+		String columns = TextUtils.join(", ", getSearchableColumns());
+		String newValues = "new." + TextUtils.join(", new.", getSearchableColumns());
+
+		// Keep the index in sync with the content table, the row id of the index is the item id
+		String insertIndexRow = "INSERT INTO " + ftsTableName + " (docid, " + columns + ") VALUES (new." + idColumn +
+				", " + newValues + ");";
+		String deleteIndexRow = "DELETE FROM " + ftsTableName + " WHERE docid = old." + idColumn + ";";
+
+		String replaceIndexRow = "DELETE FROM " + ftsTableName + " WHERE docid = new." + idColumn + "; " +
+				insertIndexRow;
+
+		// Only updates of the indexed columns (or the id) change the index row, other updates don't touch the index
+		String updatedColumns = idColumn + ", " + columns;
+
+		for (String trigger : new String[] { "_ai", "_bd", "_bu", "_au" })
+		{
+			db.execSQL("DROP TRIGGER IF EXISTS " + ftsTableName + trigger);
+		}
+
+		// Rows replaced by INSERT OR REPLACE don't fire the delete trigger, so the insert clears their index row
+		db.execSQL("CREATE TRIGGER " + ftsTableName + "_ai AFTER INSERT ON " + tableName + " BEGIN " +
+				replaceIndexRow + " END");
+		db.execSQL("CREATE TRIGGER " + ftsTableName + "_bd BEFORE DELETE ON " + tableName + " BEGIN " +
+				deleteIndexRow + " END");
+		db.execSQL("CREATE TRIGGER " + ftsTableName + "_bu BEFORE UPDATE OF " + updatedColumns + " ON " + tableName +
+				" BEGIN " + deleteIndexRow + " END");
+		db.execSQL("CREATE TRIGGER " + ftsTableName + "_au AFTER UPDATE OF " + updatedColumns + " ON " + tableName +
+				" BEGIN " + insertIndexRow + " END");
+	}
+
+	/**
+	 * Returns the name of the full-text index table.
+	 */
+	public String getFtsTableName()
+	{
+		return getTableName() + "_fts";
+	}
+
+	/**
+	 * Returns the selection clause matching the items whose indexed columns match the search query bound to its
+	 * only placeholder.
+	 */
+	String getMatchSelection()
+	{
+		return getIdColumn() + " IN (SELECT docid FROM " + getFtsTableName() + " WHERE " + getFtsTableName() +
+				" MATCH ?)";
+	}
+
+	/**
+	 * Returns the columns that are included in the full-text index.
+	 */
+	protected abstract String[] getSearchableColumns();
+}
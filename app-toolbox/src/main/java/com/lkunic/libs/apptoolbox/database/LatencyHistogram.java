@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "LatencyHistogram.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 15/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency histogram with power of two buckets. Bucket i counts the latencies between 2^i and 2^(i+1)
+ * microseconds, so recording a value is a couple of atomic increments.
+ */
+public class LatencyHistogram
+{
+	private static final int BUCKET_COUNT = 32;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mTotalNanos = new AtomicLong();
+
+	/**
+	 * Records a single latency.
+	 */
+	public void record(long durationNanos)
+	{
+		long micros = Math.max(durationNanos / 1000, 1);
+		int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+
+		mBuckets.incrementAndGet(bucket);
+		mCount.incrementAndGet();
+		mTotalNanos.addAndGet(durationNanos);
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 */
+	public long getCount()
+	{
+		return mCount.get();
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMeanNanos()
+	{
+		long count = mCount.get();
+		return count == 0 ? 0 : mTotalNanos.get() / count;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket containing the given percentile, in microseconds.
+	 * @param percentile Percentile between 0 and 100.
+	 */
+	public long getPercentileMicros(double percentile)
+	{
+		long count = mCount.get();
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += mBuckets.get(i);
+
+			if (seen >= threshold)
+			{
+				return 1L << (i + 1);
+			}
+		}
+
+		return 1L << BUCKET_COUNT;
+	}
+
+	/**
+	 * Returns the number of latencies in the given bucket.
+	 */
+	public long getBucketCount(int bucket)
+	{
+		return mBuckets.get(bucket);
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "LocalDbAccess.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 06/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Accesses the database of a content provider running in the same process directly, without going through the
+ * content resolver. Operations skip the resolver lookup and the cursor wrapping, and inserts return the item id
+ * without building and parsing the item uri. Change notifications are delivered the same way as for operations
+ * going through the content resolver.
+ */
+public class LocalDbAccess
+{
+	private final DbContentProvider mProvider;
+
+	/**
+	 * @param provider Provider whose database is accessed.
+	 */
+	public LocalDbAccess(DbContentProvider provider)
+	{
+		if (provider == null)
+		{
+			throw new IllegalArgumentException("Provider can not be null");
+		}
+
+		mProvider = provider;
+	}
+
+	/**
+	 * Creates direct access to the provider with the given authority.
+	 * @throws DatabaseProviderException If the provider is not a DbContentProvider running in this process.
+	 */
+	public static LocalDbAccess forAuthority(Context context, String authority)
+	{
+		ContentProviderClient client = context.getContentResolver().acquireContentProviderClient(authority);
+
+		if (client == null)
+		{
+			throw new DatabaseProviderException("Unknown authority: " + authority);
+		}
+
+		// The provider instance lives as long as the process, so the client is not needed once it is known
+		ContentProvider provider = client.getLocalContentProvider();
+		client.release();
+
+		if (!(provider instanceof DbContentProvider))
+		{
+			throw new DatabaseProviderException("No local database provider for authority: " + authority);
+		}
+
+		return new LocalDbAccess((DbContentProvider) provider);
+	}
+
+	/**
+	 * Inserts the given IQueryable object into the database.
+	 * @return The inserted item id.
+	 */
+	public long insert(IQueryable queryable)
+	{
+		return mProvider.insertRow(queryable.getCollectionUri(), queryable.getContentValues());
+	}
+
+	/**
+	 * Inserts the given IQueryable object, handling an existing row with the given strategy instead of failing.
+	 * @return The id of the inserted or updated item, or -1 if the item was ignored.
+	 */
+	public long upsert(IQueryable queryable, ConflictStrategy conflictStrategy)
+	{
+		return mProvider.insertRow(conflictStrategy.appendTo(queryable.getCollectionUri()),
+				queryable.getContentValues());
+	}
+
+	/**
+	 * Updates the given IQueryable object in the database. Uses the item id for selection.
+	 * @return Number of updated rows.
+	 */
+	public int update(IQueryable queryable)
+	{
+		return mProvider.update(queryable.getItemUri(), queryable.getContentValues(), null, null);
+	}
+
+	/**
+	 * Deletes the given IQueryable object from the database. Uses the item id for selection.
+	 * @return Number of deleted rows.
+	 */
+	public int delete(IQueryable queryable)
+	{
+		return mProvider.delete(queryable.getItemUri(), null, null);
+	}
+
+	/**
+	 * Inserts all of the given IQueryable objects of the same type with a single bulk insert.
+	 * @param collectionUri Collection uri of the item type.
+	 * @return Number of inserted rows.
+	 */
+	public int insertAll(Uri collectionUri, Collection<? extends IQueryable> queryables)
+	{
+		ContentValues[] values = new ContentValues[queryables.size()];
+		int i = 0;
+
+		for (IQueryable queryable : queryables)
+		{
+			values[i++] = queryable.getContentValues();
+		}
+
+		return mProvider.bulkInsert(collectionUri, values);
+	}
+
+	/**
+	 * Updates all of the given IQueryable objects in one transaction. Uses the item ids for selection.
+	 * @return Number of updated rows.
+	 */
+	public int updateAll(Collection<? extends IQueryable> queryables)
+	{
+		ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+
+		for (IQueryable queryable : queryables)
+		{
+			operations.add(ContentProviderOperation.newUpdate(queryable.getItemUri())
+					.withValues(queryable.getContentValues())
+					.build());
+		}
+
+		return applyBatch(operations);
+	}
+
+	/**
+	 * Deletes all of the given IQueryable objects in one transaction. Uses the item ids for selection.
+	 * @return Number of deleted rows.
+	 */
+	public int deleteAll(Collection<? extends IQueryable> queryables)
+	{
+		ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+
+		for (IQueryable queryable : queryables)
+		{
+			operations.add(ContentProviderOperation.newDelete(queryable.getItemUri()).build());
+		}
+
+		return applyBatch(operations);
+	}
+
+	/**
+	 * Queries the database directly. The returned cursor is the database cursor itself, without a wrapper.
+	 */
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+	{
+		return mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+	}
+
+	/**
+	 * Creates a query executed directly against the database.
+	 */
+	public DbQuery createQuery(Uri uri)
+	{
+		return DbQuery.create(this, uri);
+	}
+
+	/**
+	 * Returns true if an item with the given id exists, without building a cursor for it.
+	 */
+	public boolean exists(Uri collectionUri, long id)
+	{
+		return DbQuery.create(this, ContentUris.withAppendedId(collectionUri, id)).count() > 0;
+	}
+
+	/**
+	 * Returns the provider whose database is accessed.
+	 */
+	DbContentProvider getProvider()
+	{
+		return mProvider;
+	}
+
+	/**
+	 * Executes a provider call directly.
+	 */
+	Bundle call(String method, Bundle extras)
+	{
+		return mProvider.call(method, null, extras);
+	}
+
+	private int applyBatch(ArrayList<ContentProviderOperation> operations)
+	{
+		int affectedRows = 0;
+
+		try
+		{
+			for (ContentProviderResult result : mProvider.applyBatch(operations))
+			{
+				if (result.count != null)
+				{
+					affectedRows += result.count;
+				}
+			}
+		}
+		catch (OperationApplicationException e)
+		{
+			throw new DatabaseProviderException("Batch not applied. See inner exception for details", e);
+		}
+
+		return affectedRows;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "Migration.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 10/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step of a table schema migration, bringing the table to the given database version.
+ */
+public abstract class Migration
+{
+	private final int mVersion;
+
+	/**
+	 * @param version Database version the table has after this step is applied.
+	 */
+	protected Migration(int version)
+	{
+		mVersion = version;
+	}
+
+	/**
+	 * Creates a migration step that executes the given SQL statements.
+	 * @param version    Database version the table has after this step is applied.
+	 * @param statements SQL statements to execute, in order.
+	 */
+	public static Migration sql(int version, final String... statements)
+	{
+		return new Migration(version)
+		{
+			@Override
+			public void migrate(SQLiteDatabase db)
+			{
+				for (String statement : statements)
+				{
+					db.execSQL(statement);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the database version the table has after this step is applied.
+	 */
+	public int getVersion()
+	{
+		return mVersion;
+	}
+
+	/**
+	 * Applies the migration step. Called inside the upgrade transaction, so it must not start its own.
+	 * @param db Database instance to migrate.
+	 */
+	public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "NotificationCoalescer.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 25/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges change notifications of the same collection uri so that a burst of writes causes a single requery in the
+ * attached cursors. Changes made inside a batch are delivered when the batch is committed, other changes are
+ * delivered after the coalescing window passes (or immediately if the window is 0). The ids of the changed rows are
+ * merged as well, and delivered in the notification uri (see {@link ChangeSet}).
+ */
+public class NotificationCoalescer
+{
+	private final ContentResolver mResolver;
+	private final long mWindowMillis;
+	private final Handler mHandler;
+
+	// Changes waiting for the coalescing window to pass, by collection uri
+	private final Map<Uri, ChangeSet> mPendingChanges = new LinkedHashMap<>();
+	private boolean mFlushScheduled;
+
+	// Batch running on the current thread (null outside of a batch)
+	private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+	// Counters of requested and delivered notifications
+	private final AtomicLong mRawCount = new AtomicLong();
+	private final AtomicLong mDeliveredCount = new AtomicLong();
+
+	private final Runnable mFlushRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flush();
+		}
+	};
+
+	/**
+	 * @param resolver     Content resolver used to deliver the notifications.
+	 * @param windowMillis Time in milliseconds during which notifications of the same uri are merged.
+	 */
+	public NotificationCoalescer(ContentResolver resolver, long windowMillis)
+	{
+		mResolver = resolver;
+		mWindowMillis = windowMillis;
+		mHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Notifies about a change on the given collection uri, without knowing which rows changed.
+	 */
+	public void notifyChange(Uri uri)
+	{
+		notifyChange(uri, ChangeSet.OPERATION_UPDATE, (long[]) null);
+	}
+
+	/**
+	 * Notifies about a change of the given rows on the given collection uri.
+	 * @param operation One of the ChangeSet.OPERATION_ constants.
+	 * @param ids       Ids of the changed rows, or null if they are not known.
+	 */
+	public void notifyChange(Uri uri, int operation, long... ids)
+	{
+		mRawCount.incrementAndGet();
+
+		Batch batch = mBatch.get();
+		if (batch != null)
+		{
+			// Delivered when the batch is committed
+			addChange(batch.changes, uri, operation, ids);
+		}
+		else if (mWindowMillis <= 0)
+		{
+			ChangeSet changeSet = new ChangeSet(uri);
+			changeSet.add(operation, ids);
+			deliver(changeSet);
+		}
+		else
+		{
+			synchronized (mPendingChanges)
+			{
+				addChange(mPendingChanges, uri, operation, ids);
+
+				if (!mFlushScheduled)
+				{
+					mFlushScheduled = true;
+					mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts a batch on the current thread. Notifications are held back until the matching call to
+	 * {@link #endBatch(boolean)}. Batches can be nested, only the outermost batch delivers the notifications.
+	 */
+	public void beginBatch()
+	{
+		Batch batch = mBatch.get();
+
+		if (batch == null)
+		{
+			batch = new Batch();
+			mBatch.set(batch);
+		}
+
+		batch.depth++;
+	}
+
+	/**
+	 * Ends the batch running on the current thread.
+	 * @param committed True if the changes made in the batch were committed, false if they were rolled back.
+	 */
+	public void endBatch(boolean committed)
+	{
+		Batch batch = mBatch.get();
+
+		if (batch == null)
+		{
+			throw new IllegalStateException("No batch is running on the current thread");
+		}
+
+		if (!committed)
+		{
+			batch.rolledBack = true;
+		}
+
+		if (--batch.depth > 0)
+		{
+			return;
+		}
+
+		mBatch.remove();
+
+		if (!batch.rolledBack)
+		{
+			for (ChangeSet changeSet : batch.changes.values())
+			{
+				deliver(changeSet);
+			}
+		}
+	}
+
+	/**
+	 * Delivers all notifications that are waiting for the coalescing window to pass.
+	 */
+	public void flush()
+	{
+		List<ChangeSet> changes;
+
+		synchronized (mPendingChanges)
+		{
+			changes = new ArrayList<>(mPendingChanges.values());
+			mPendingChanges.clear();
+
+			mHandler.removeCallbacks(mFlushRunnable);
+			mFlushScheduled = false;
+		}
+
+		for (ChangeSet changeSet : changes)
+		{
+			deliver(changeSet);
+		}
+	}
+
+	/**
+	 * Returns the number of change notifications that were requested.
+	 */
+	public long getRawNotificationCount()
+	{
+		return mRawCount.get();
+	}
+
+	/**
+	 * Returns the number of change notifications that were delivered to the content resolver.
+	 */
+	public long getDeliveredNotificationCount()
+	{
+		return mDeliveredCount.get();
+	}
+
+	/**
+	 * Adds the change to the change set of the uri.
+	 */
+	private static void addChange(Map<Uri, ChangeSet> changes, Uri uri, int operation, long[] ids)
+	{
+		ChangeSet changeSet = changes.get(uri);
+
+		if (changeSet == null)
+		{
+			changeSet = new ChangeSet(uri);
+			changes.put(uri, changeSet);
+		}
+
+		changeSet.add(operation, ids);
+	}
+
+	private void deliver(ChangeSet changeSet)
+	{
+		mDeliveredCount.incrementAndGet();
+
+		// Observers of the collection uri are notified regardless of the query parameters
+		mResolver.notifyChange(changeSet.toUri(), null);
+	}
+
+	/**
+	 * State of a batch running on a single thread.
+	 */
+	private static class Batch
+	{
+		public final Map<Uri, ChangeSet> changes = new LinkedHashMap<>();
+		public int depth;
+		public boolean rolledBack;
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "QueryObserver.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 15/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the result of a query up to date. The query is executed off the main thread when observing starts and
+ * again after every change of its data, with changes arriving in quick succession merged into one execution. A new
+ * result is only delivered if it differs from the previous one, so writes that don't affect the result don't cause
+ * the views to be bound again. To compare the results, the observer keeps a copy of the values of the last delivered
+ * result, so it is meant for queries with small results.
+ */
+public class QueryObserver
+{
+	private final DbQuery mQuery;
+	private final ContentResolver mResolver;
+	private final Uri mUri;
+	private final long mDebounceMillis;
+	private final DbQuery.OnQueryCompletedListener mListener;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private final ContentObserver mContentObserver = new ContentObserver(mHandler)
+	{
+		@Override
+		public void onChange(boolean selfChange)
+		{
+			scheduleQuery(mDebounceMillis);
+		}
+	};
+
+	private final Runnable mQueryRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			executeQuery();
+		}
+	};
+
+	// Query that is running, and whether the data changed while it was running
+	private SnapshotQueryTask mActiveTask;
+	private boolean mChangedWhileRunning;
+
+	// Values of the last delivered result, null if no result has been delivered
+	private ResultSnapshot mResult;
+
+	private boolean mObserving;
+
+	/**
+	 * @param query          Query to observe.
+	 * @param resolver       Content resolver delivering the change notifications of the query uri.
+	 * @param debounceMillis Time in milliseconds to wait for further changes before the query is executed again.
+	 * @param listener       Listener that receives the results, and becomes responsible for closing them.
+	 */
+	QueryObserver(DbQuery query, ContentResolver resolver, Uri uri, long debounceMillis,
+			DbQuery.OnQueryCompletedListener listener)
+	{
+		mQuery = query;
+		mResolver = resolver;
+		mUri = uri;
+		mDebounceMillis = debounceMillis;
+		mListener = listener;
+	}
+
+	/**
+	 * Starts observing the query and executes it to deliver the current result.
+	 */
+	void start()
+	{
+		mObserving = true;
+
+		// Changes of the items are notified on the collection uri, which is an ancestor of the item uris
+		mResolver.registerContentObserver(mUri, true, mContentObserver);
+		scheduleQuery(0);
+	}
+
+	/**
+	 * Stops observing the query. A result that is being loaded is not delivered.
+	 */
+	public void stop()
+	{
+		if (!mObserving)
+		{
+			return;
+		}
+
+		mObserving = false;
+		mResolver.unregisterContentObserver(mContentObserver);
+		mHandler.removeCallbacks(mQueryRunnable);
+
+		if (mActiveTask != null)
+		{
+			mActiveTask.cancel();
+			mActiveTask = null;
+		}
+	}
+
+	/**
+	 * Returns true until the observer is stopped.
+	 */
+	public boolean isObserving()
+	{
+		return mObserving;
+	}
+
+	private void scheduleQuery(long delayMillis)
+	{
+		if (!mObserving)
+		{
+			return;
+		}
+
+		if (mActiveTask != null)
+		{
+			// Executed again once the running query completes, its result may already be outdated
+			mChangedWhileRunning = true;
+			return;
+		}
+
+		// Restarting the delay merges changes arriving in quick succession
+		mHandler.removeCallbacks(mQueryRunnable);
+		mHandler.postDelayed(mQueryRunnable, delayMillis);
+	}
+
+	private void executeQuery()
+	{
+		mChangedWhileRunning = false;
+		mActiveTask = new SnapshotQueryTask(mQuery, new DbQuery.OnQueryCompletedListener()
+		{
+			@Override
+			public void onQueryCompleted(Cursor cursor)
+			{
+				ResultSnapshot result = mActiveTask.result;
+				mActiveTask = null;
+
+				deliverResult(cursor, result);
+
+				if (mChangedWhileRunning)
+				{
+					scheduleQuery(mDebounceMillis);
+				}
+			}
+
+			@Override
+			public void onQueryFailed(Exception e)
+			{
+				mActiveTask = null;
+				mListener.onQueryFailed(e);
+
+				if (mChangedWhileRunning)
+				{
+					scheduleQuery(mDebounceMillis);
+				}
+			}
+		});
+
+		mActiveTask.start();
+	}
+
+	private void deliverResult(Cursor cursor, ResultSnapshot result)
+	{
+		if (mResult != null && result != null && result.equals(mResult))
+		{
+			// Same result as before, nothing to update
+			if (cursor != null)
+			{
+				cursor.close();
+			}
+
+			return;
+		}
+
+		mResult = result;
+		mListener.onQueryCompleted(cursor);
+	}
+
+	/**
+	 * Copy of the values of a query result. Results are compared by their values, the hash only quickly tells
+	 * different results apart.
+	 */
+	static class ResultSnapshot
+	{
+		private final String[] mColumnNames;
+		private final List<Object[]> mRows;
+		private final long mHash;
+
+		/**
+		 * Copies all values of the cursor, leaving the cursor before the first row.
+		 */
+		ResultSnapshot(Cursor cursor)
+		{
+			int columnCount = cursor.getColumnCount();
+			long hash = 17;
+
+			mColumnNames = cursor.getColumnNames();
+			mRows = new ArrayList<>(cursor.getCount());
+
+			cursor.moveToPosition(-1);
+			while (cursor.moveToNext())
+			{
+				Object[] row = new Object[columnCount];
+
+				for (int i = 0; i < columnCount; i++)
+				{
+					hash = 31 * hash + cursor.getType(i);
+
+					switch (cursor.getType(i))
+					{
+						case Cursor.FIELD_TYPE_INTEGER:
+							row[i] = cursor.getLong(i);
+							hash = 31 * hash + cursor.getLong(i);
+							break;
+						case Cursor.FIELD_TYPE_FLOAT:
+							row[i] = cursor.getDouble(i);
+							hash = 31 * hash + Double.doubleToLongBits(cursor.getDouble(i));
+							break;
+						case Cursor.FIELD_TYPE_STRING:
+							row[i] = cursor.getString(i);
+							hash = 31 * hash + row[i].hashCode();
+							break;
+						case Cursor.FIELD_TYPE_BLOB:
+							row[i] = cursor.getBlob(i);
+							hash = 31 * hash + Arrays.hashCode((byte[]) row[i]);
+							break;
+					}
+				}
+
+				mRows.add(row);
+			}
+
+			cursor.moveToPosition(-1);
+			mHash = 31 * hash + mRows.size();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof ResultSnapshot))
+			{
+				return false;
+			}
+
+			ResultSnapshot other = (ResultSnapshot) o;
+
+			if (mHash != other.mHash || mRows.size() != other.mRows.size() ||
+					!Arrays.equals(mColumnNames, other.mColumnNames))
+			{
+				return false;
+			}
+
+			// Equal hashes don't guarantee equal values
+			for (int i = 0; i < mRows.size(); i++)
+			{
+				if (!Arrays.deepEquals(mRows.get(i), other.mRows.get(i)))
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int) (mHash ^ (mHash >>> 32));
+		}
+	}
+
+	/**
+	 * Query task that copies the result values on the background thread.
+	 */
+	private static class SnapshotQueryTask extends QueryTask
+	{
+		// Written before the result is posted to the main thread, which makes it visible there
+		public ResultSnapshot result;
+
+		public SnapshotQueryTask(DbQuery query, DbQuery.OnQueryCompletedListener listener)
+		{
+			super(query, listener);
+		}
+
+		@Override
+		void onResultLoaded(Cursor cursor)
+		{
+			result = new ResultSnapshot(cursor);
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "QueryPager.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 02/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.database.MergeCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the results of a query page by page using keyset pagination, so only the rows that are displayed have to be
+ * read. Pages are loaded asynchronously and exposed as a single cursor containing all pages loaded so far.
+ */
+public class QueryPager
+{
+	private final DbQuery mQuery;
+	private final String mKeyColumn;
+	private final boolean mAscending;
+	private final int mPageSize;
+
+	private final List<Cursor> mPages = new ArrayList<>();
+
+	// Cursor over the loaded pages, replaced whenever a page is loaded
+	private Cursor mCursor;
+
+	private Object mLastKey;
+	private boolean mHasMore = true;
+
+	private QueryTask mActiveTask;
+	private OnPageLoadedListener mListener;
+
+	/**
+	 * @param query     Query returning the rows to page through. Its projection has to include the key column.
+	 * @param keyColumn Unique column the rows are ordered by (e.g. the id column).
+	 * @param ascending True to page in ascending key order, false for descending order.
+	 * @param pageSize  Number of rows loaded with each page.
+	 */
+	public QueryPager(DbQuery query, String keyColumn, boolean ascending, int pageSize)
+	{
+		if (pageSize <= 0)
+		{
+			throw new IllegalArgumentException("Page size has to be positive");
+		}
+
+		mQuery = query;
+		mKeyColumn = keyColumn;
+		mAscending = ascending;
+		mPageSize = pageSize;
+	}
+
+	/**
+	 * Sets the listener notified when a page has been loaded or failed to load.
+	 */
+	public void setOnPageLoadedListener(OnPageLoadedListener listener)
+	{
+		mListener = listener;
+	}
+
+	/**
+	 * Starts loading the next page, unless a page is already loading or all rows have been loaded.
+	 */
+	public void loadNextPage()
+	{
+		if (mActiveTask != null || !mHasMore)
+		{
+			return;
+		}
+
+		DbQuery pageQuery = mQuery.copy()
+				.seek(mKeyColumn, mLastKey, mAscending)
+				.limit(mPageSize);
+
+		mActiveTask = pageQuery.executeAsync(new DbQuery.OnQueryCompletedListener()
+		{
+			@Override
+			public void onQueryCompleted(Cursor cursor)
+			{
+				mActiveTask = null;
+				onPageLoaded(cursor);
+			}
+
+			@Override
+			public void onQueryFailed(Exception e)
+			{
+				// Stop paging, otherwise scrolling would keep requesting the failing page
+				mActiveTask = null;
+				mHasMore = false;
+
+				if (mListener != null)
+				{
+					mListener.onPageFailed(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns true while a page is being loaded.
+	 */
+	public boolean isLoading()
+	{
+		return mActiveTask != null;
+	}
+
+	/**
+	 * Returns true if there might be more rows to load.
+	 */
+	public boolean hasMore()
+	{
+		return mHasMore;
+	}
+
+	/**
+	 * Returns a cursor over all pages loaded so far, or null if no page has been loaded yet. The cursor is replaced
+	 * when the next page is loaded, after which the pager releases it. The pages are owned by the pager, closing the
+	 * returned cursor doesn't close them, use {@link #close()} when the pager is no longer used.
+	 */
+	public Cursor getCursor()
+	{
+		return mCursor;
+	}
+
+	/**
+	 * Cancels the page that is loading and closes all loaded pages.
+	 */
+	public void close()
+	{
+		if (mActiveTask != null)
+		{
+			mActiveTask.cancel();
+			mActiveTask = null;
+		}
+
+		if (mCursor != null)
+		{
+			mCursor.close();
+			mCursor = null;
+		}
+
+		for (Cursor page : mPages)
+		{
+			page.close();
+		}
+
+		mPages.clear();
+		mHasMore = false;
+	}
+
+	private void onPageLoaded(Cursor page)
+	{
+		if (page == null)
+		{
+			mHasMore = false;
+			return;
+		}
+
+		int count = page.getCount();
+		if (count < mPageSize)
+		{
+			mHasMore = false;
+		}
+
+		if (count == 0)
+		{
+			page.close();
+			return;
+		}
+
+		// Remember the key of the last row, the next page starts after it
+		page.moveToLast();
+		mLastKey = readKey(page, page.getColumnIndexOrThrow(mKeyColumn));
+		page.moveToPosition(-1);
+
+		mPages.add(page);
+
+		Cursor previousCursor = mCursor;
+		mCursor = mergePages();
+
+		if (mListener != null)
+		{
+			mListener.onPageLoaded(mCursor);
+		}
+
+		// Released once the listener has switched to the new cursor, which unregisters its observers from the pages
+		if (previousCursor != null)
+		{
+			previousCursor.close();
+		}
+	}
+
+	/**
+	 * Creates a cursor over all loaded pages. The merged cursor registers observers on the pages, so every page is
+	 * wrapped in a view that removes the observers of the merged cursor when it is closed, leaving the page open.
+	 */
+	private Cursor mergePages()
+	{
+		Cursor[] pageViews = new Cursor[mPages.size()];
+
+		for (int i = 0; i < pageViews.length; i++)
+		{
+			pageViews[i] = new PageView(mPages.get(i));
+		}
+
+		return new MergeCursor(pageViews);
+	}
+
+	private static Object readKey(Cursor cursor, int columnIndex)
+	{
+		switch (cursor.getType(columnIndex))
+		{
+			case Cursor.FIELD_TYPE_INTEGER:
+				return cursor.getLong(columnIndex);
+			case Cursor.FIELD_TYPE_FLOAT:
+				return cursor.getDouble(columnIndex);
+			default:
+				return cursor.getString(columnIndex);
+		}
+	}
+
+	/**
+	 * View of a page used by a merged cursor. Closing the view removes the observers registered through it instead of
+	 * closing the page, which is shared with the merged cursors of later pages.
+	 */
+	private static class PageView extends CursorWrapper
+	{
+		private final List<DataSetObserver> mDataSetObservers = new ArrayList<>();
+		private final List<ContentObserver> mContentObservers = new ArrayList<>();
+
+		public PageView(Cursor page)
+		{
+			super(page);
+		}
+
+		@Override
+		public void registerDataSetObserver(DataSetObserver observer)
+		{
+			super.registerDataSetObserver(observer);
+			mDataSetObservers.add(observer);
+		}
+
+		@Override
+		public void unregisterDataSetObserver(DataSetObserver observer)
+		{
+			// Observers of a closed view have already been removed
+			if (mDataSetObservers.remove(observer))
+			{
+				super.unregisterDataSetObserver(observer);
+			}
+		}
+
+		@Override
+		public void registerContentObserver(ContentObserver observer)
+		{
+			super.registerContentObserver(observer);
+			mContentObservers.add(observer);
+		}
+
+		@Override
+		public void unregisterContentObserver(ContentObserver observer)
+		{
+			if (mContentObservers.remove(observer))
+			{
+				super.unregisterContentObserver(observer);
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			for (DataSetObserver observer : mDataSetObservers)
+			{
+				super.unregisterDataSetObserver(observer);
+			}
+
+			for (ContentObserver observer : mContentObservers)
+			{
+				super.unregisterContentObserver(observer);
+			}
+
+			mDataSetObservers.clear();
+			mContentObservers.clear();
+		}
+	}
+
+	/**
+	 * Listener notified on the main thread when a page has been loaded or failed to load.
+	 */
+	public interface OnPageLoadedListener
+	{
+		/**
+		 * A page has been loaded.
+		 * @param cursor Cursor over all pages loaded so far.
+		 */
+		void onPageLoaded(Cursor cursor);
+
+		/**
+		 * Loading a page failed, no further pages are loaded.
+		 * @param e The exception thrown by the query.
+		 */
+		void onPageFailed(Exception e);
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "QueryTask.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 28/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A query running in the background. The result is delivered to the listener on the main thread, unless the task is
+ * cancelled first. Cancelling a running task aborts the query in the content provider (on API 16+).
+ */
+public class QueryTask implements Runnable
+{
+	// Number of threads executing queries, and the number of queries that can wait for a free thread
+	private static final int THREAD_COUNT = 2;
+	private static final int QUEUE_SIZE = 64;
+
+	// Executor shared by all query tasks
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+			30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory()
+	{
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "DbQuery #" + mCount.incrementAndGet());
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	static
+	{
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	private final DbQuery mQuery;
+	private final DbQuery.OnQueryCompletedListener mListener;
+
+	// Used to abort the query in the provider, only available on API 16+
+	private final CancellationSignal mCancellationSignal;
+
+	private volatile boolean mCancelled;
+
+	QueryTask(DbQuery query, DbQuery.OnQueryCompletedListener listener)
+	{
+		mQuery = query;
+		mListener = listener;
+		mCancellationSignal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new CancellationSignal() : null;
+	}
+
+	/**
+	 * Queues the task for execution.
+	 */
+	void start()
+	{
+		try
+		{
+			sExecutor.execute(this);
+		}
+		catch (RejectedExecutionException e)
+		{
+			deliverFailure(e);
+		}
+	}
+
+	/**
+	 * Cancels the task. A queued task is dropped, a running query is aborted and its result is never delivered.
+	 * Does nothing if the result has already been delivered.
+	 */
+	public void cancel()
+	{
+		mCancelled = true;
+		sExecutor.remove(this);
+
+		if (mCancellationSignal != null)
+		{
+			mCancellationSignal.cancel();
+		}
+	}
+
+	/**
+	 * Returns true if the task has been cancelled.
+	 */
+	public boolean isCancelled()
+	{
+		return mCancelled;
+	}
+
+	@Override
+	public void run()
+	{
+		if (mCancelled)
+		{
+			return;
+		}
+
+		Cursor result = null;
+
+		try
+		{
+			result = mQuery.execute(mCancellationSignal);
+
+			if (result != null)
+			{
+				// Fill the cursor window here instead of on the main thread
+				result.getCount();
+				onResultLoaded(result);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// Cancelling the task aborts the window fill of a cursor that has already been returned
+			if (result != null)
+			{
+				result.close();
+			}
+
+			// Aborting the query throws an exception, which is expected if the task has been cancelled
+			if (!mCancelled)
+			{
+				deliverFailure(e);
+			}
+
+			return;
+		}
+
+		final Cursor cursor = result;
+
+		sMainHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (mCancelled)
+				{
+					// The result is no longer needed
+					if (cursor != null)
+					{
+						cursor.close();
+					}
+				}
+				else
+				{
+					mListener.onQueryCompleted(cursor);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called on the background thread once the query has been executed, before the result is delivered. Can be
+	 * overridden to process the result off the main thread.
+	 */
+	void onResultLoaded(Cursor cursor)
+	{
+	}
+
+	private void deliverFailure(final Exception e)
+	{
+		sMainHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!mCancelled)
+				{
+					mListener.onQueryFailed(e);
+				}
+			}
+		});
+	}
+}
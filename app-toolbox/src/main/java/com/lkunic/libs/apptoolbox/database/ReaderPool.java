@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "ReaderPool.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 09/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded pool of read-only connections to a database using write-ahead logging. Each connection has its own read
+ * transaction, so queries running on different connections don't wait for each other or for the writer. Connections
+ * are opened when they are first needed, and stay open while cursors created on them are open, even after the pool is
+ * closed.
+ */
+class ReaderPool
+{
+	private final String mPath;
+	private final int mMaxSize;
+	private final DatabaseProfile mProfile;
+
+	// Connections that are not executing a query
+	private final ArrayDeque<SQLiteDatabase> mIdle = new ArrayDeque<>();
+
+	// All open connections, idle or not
+	private final List<SQLiteDatabase> mConnections = new ArrayList<>();
+
+	// Number of references to the connections that are in use: one while a connection is acquired, and one for every
+	// open cursor created on it. Connections without references are idle, or closed if the pool is closed
+	private final Map<SQLiteDatabase, Integer> mReferences = new IdentityHashMap<>();
+
+	private boolean mClosed;
+
+	/**
+	 * @param path    Path of the database file.
+	 * @param maxSize Maximum number of open connections.
+	 * @param profile Profile whose read settings are applied to the connections.
+	 */
+	ReaderPool(String path, int maxSize, DatabaseProfile profile)
+	{
+		mPath = path;
+		mMaxSize = maxSize;
+		mProfile = profile;
+	}
+
+	/**
+	 * Takes an idle connection, opening a new one if there is none and the pool is not full. Otherwise waits for a
+	 * connection to be released. The connection has to be returned using {@link #release(SQLiteDatabase)}.
+	 * @return The connection, or null if the pool has been closed.
+	 */
+	SQLiteDatabase acquire()
+	{
+		synchronized (this)
+		{
+			while (!mClosed && mIdle.isEmpty() && mConnections.size() >= mMaxSize)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+
+			if (mClosed)
+			{
+				return null;
+			}
+
+			if (!mIdle.isEmpty())
+			{
+				SQLiteDatabase connection = mIdle.pop();
+				addReference(connection);
+				return connection;
+			}
+
+			// Reserve the place of the new connection, it is opened outside of the lock
+			mConnections.add(null);
+		}
+
+		SQLiteDatabase connection = null;
+
+		try
+		{
+			SQLiteDatabase opened = SQLiteDatabase.openDatabase(mPath, null, SQLiteDatabase.OPEN_READONLY);
+
+			try
+			{
+				mProfile.configureReader(opened);
+			}
+			catch (RuntimeException e)
+			{
+				opened.close();
+				throw e;
+			}
+
+			connection = opened;
+			return connection;
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				mConnections.remove(null);
+
+				if (connection != null)
+				{
+					mConnections.add(connection);
+					addReference(connection);
+				}
+				else
+				{
+					// Opening failed, let a waiting thread try instead
+					notify();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the connection to the pool. Cursors created on the connection stay usable, as the connection is only
+	 * closed once the pool is closed and all of them are closed, see {@link #wrapCursor(SQLiteDatabase, Cursor)}.
+	 */
+	synchronized void release(SQLiteDatabase connection)
+	{
+		if (!mClosed)
+		{
+			mIdle.push(connection);
+			notify();
+		}
+
+		removeReference(connection);
+	}
+
+	/**
+	 * Wraps a cursor created on an acquired connection, keeping the connection open until the cursor is closed.
+	 * Cursors fill their window lazily, which needs the connection after it has been released.
+	 */
+	synchronized Cursor wrapCursor(final SQLiteDatabase connection, Cursor cursor)
+	{
+		addReference(connection);
+
+		// Passes the window of the SQLite cursor through, so cursors returned to other processes are not copied
+		return new CrossProcessCursorWrapper(cursor)
+		{
+			private boolean mReleased;
+
+			@Override
+			public void close()
+			{
+				super.close();
+
+				synchronized (ReaderPool.this)
+				{
+					if (!mReleased)
+					{
+						mReleased = true;
+						removeReference(connection);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Closes all idle connections without open cursors. Other connections are closed once they are released and
+	 * their cursors are closed.
+	 */
+	synchronized void close()
+	{
+		mClosed = true;
+
+		for (SQLiteDatabase connection : mIdle)
+		{
+			if (!mReferences.containsKey(connection))
+			{
+				connection.close();
+			}
+		}
+
+		mIdle.clear();
+		mConnections.clear();
+		notifyAll();
+	}
+
+	private void addReference(SQLiteDatabase connection)
+	{
+		Integer references = mReferences.get(connection);
+		mReferences.put(connection, references != null ? references + 1 : 1);
+	}
+
+	private void removeReference(SQLiteDatabase connection)
+	{
+		Integer references = mReferences.get(connection);
+
+		if (references != null && references > 1)
+		{
+			mReferences.put(connection, references - 1);
+			return;
+		}
+
+		mReferences.remove(connection);
+
+		if (mClosed)
+		{
+			connection.close();
+		}
+	}
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "RowCache.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 18/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.text.TextUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of single rows read through item uris, keyed by table, item id and projection. Writes invalidate
+ * the cached rows of the affected item, or of the whole table if the affected items are not known. The keys are
+ * indexed by table and item id, so an invalidation only touches the rows it removes.
+ *
+ * Each table has a generation that changes with every invalidation. A row is only cached if the generation didn't
+ * change while it was being read, so a read racing with a write never caches the old row. Invalidations made inside
+ * a batch are repeated when the batch ends, because other connections only see the changes after the commit.
+ */
+public class RowCache
+{
+	private final int mMaxRows;
+
+	// Cached rows in least recently used order, guarded by the lock together with the index and the generations
+	private final LinkedHashMap<String, Row> mRows = new LinkedHashMap<>(16, 0.75f, true);
+
+	// Keys of the cached rows by table and item id
+	private final Map<String, Map<Long, Set<String>>> mKeys = new HashMap<>();
+
+	// Generation of each table
+	private final Map<String, Long> mGenerations = new HashMap<>();
+
+	private final Object mLock = new Object();
+
+	// Tables invalidated by the batch running on the current thread (null outside of a batch)
+	private final ThreadLocal<Set<String>> mBatchTables = new ThreadLocal<>();
+	private final ThreadLocal<int[]> mBatchDepth = new ThreadLocal<>();
+
+	private final AtomicLong mHitCount = new AtomicLong();
+	private final AtomicLong mMissCount = new AtomicLong();
+
+	RowCache(int maxRows)
+	{
+		mMaxRows = maxRows;
+	}
+
+	/**
+	 * Returns a cursor over the cached row, or null if the row is not cached.
+	 */
+	Cursor get(String key)
+	{
+		Row row;
+
+		synchronized (mLock)
+		{
+			row = mRows.get(key);
+		}
+
+		if (row == null)
+		{
+			mMissCount.incrementAndGet();
+			return null;
+		}
+
+		mHitCount.incrementAndGet();
+
+		MatrixCursor cursor = new MatrixCursor(row.columnNames, 1);
+		cursor.addRow(row.values);
+
+		return cursor;
+	}
+
+	/**
+	 * Caches the row the cursor contains, if the cursor has exactly one row and the table wasn't invalidated since
+	 * the given generation. The cursor position is reset afterwards.
+	 * @param key        Key of the row, built with {@link #buildKey(String, long, String[])}.
+	 * @param tableName  Table the row was read from.
+	 * @param id         Id of the item.
+	 * @param generation Generation of the table from before the row was read.
+	 * @param cursor     Cursor containing the row.
+	 */
+	void put(String key, String tableName, long id, long generation, Cursor cursor)
+	{
+		if (cursor.getCount() != 1 || !cursor.moveToFirst())
+		{
+			return;
+		}
+
+		Row row = new Row(tableName, id, cursor.getColumnNames(), new Object[cursor.getColumnCount()]);
+
+		for (int i = 0; i < row.values.length; i++)
+		{
+			switch (cursor.getType(i))
+			{
+				case Cursor.FIELD_TYPE_INTEGER:
+					row.values[i] = cursor.getLong(i);
+					break;
+				case Cursor.FIELD_TYPE_FLOAT:
+					row.values[i] = cursor.getDouble(i);
+					break;
+				case Cursor.FIELD_TYPE_STRING:
+					row.values[i] = cursor.getString(i);
+					break;
+				case Cursor.FIELD_TYPE_BLOB:
+					row.values[i] = cursor.getBlob(i);
+					break;
+				default:
+					row.values[i] = null;
+					break;
+			}
+		}
+
+		cursor.moveToPosition(-1);
+
+		synchronized (mLock)
+		{
+			if (getGeneration(tableName) != generation)
+			{
+				return;
+			}
+
+			if (mRows.put(key, row) == null)
+			{
+				indexKey(tableName, id, key);
+			}
+
+			// Evict the least recently used rows
+			Iterator<Map.Entry<String, Row>> eldest = mRows.entrySet().iterator();
+
+			while (mRows.size() > mMaxRows)
+			{
+				Map.Entry<String, Row> entry = eldest.next();
+				unindexKey(entry.getValue().tableName, entry.getValue().id, entry.getKey());
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the current generation of the table.
+	 */
+	long getGeneration(String tableName)
+	{
+		synchronized (mLock)
+		{
+			Long generation = mGenerations.get(tableName);
+			return generation == null ? 0 : generation;
+		}
+	}
+
+	/**
+	 * Removes the cached rows of a single item.
+	 */
+	void invalidateItem(String tableName, long id)
+	{
+		synchronized (mLock)
+		{
+			nextGeneration(tableName);
+
+			Map<Long, Set<String>> tableKeys = mKeys.get(tableName);
+			Set<String> keys = tableKeys != null ? tableKeys.remove(id) : null;
+
+			if (keys != null)
+			{
+				mRows.keySet().removeAll(keys);
+			}
+		}
+
+		rememberBatchTable(tableName);
+	}
+
+	/**
+	 * Removes all cached rows of the table.
+	 */
+	void invalidateTable(String tableName)
+	{
+		synchronized (mLock)
+		{
+			removeTableRows(tableName);
+		}
+
+		rememberBatchTable(tableName);
+	}
+
+	/**
+	 * Starts a batch on the current thread. Batches can be nested.
+	 */
+	void beginBatch()
+	{
+		int[] depth = mBatchDepth.get();
+
+		if (depth == null)
+		{
+			depth = new int[1];
+			mBatchDepth.set(depth);
+			mBatchTables.set(new HashSet<String>());
+		}
+
+		depth[0]++;
+	}
+
+	/**
+	 * Ends the batch running on the current thread. When the outermost batch ends, the tables invalidated during
+	 * the batch are invalidated again.
+	 */
+	void endBatch()
+	{
+		int[] depth = mBatchDepth.get();
+
+		if (depth == null || --depth[0] > 0)
+		{
+			return;
+		}
+
+		Set<String> tables = mBatchTables.get();
+		mBatchDepth.remove();
+		mBatchTables.remove();
+
+		synchronized (mLock)
+		{
+			for (String tableName : tables)
+			{
+				removeTableRows(tableName);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached rows.
+	 */
+	public int size()
+	{
+		synchronized (mLock)
+		{
+			return mRows.size();
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached row.
+	 */
+	public long getHitCount()
+	{
+		return mHitCount.get();
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find a cached row.
+	 */
+	public long getMissCount()
+	{
+		return mMissCount.get();
+	}
+
+	/**
+	 * Builds the cache key of an item row read with the given projection.
+	 */
+	static String buildKey(String tableName, long id, String[] projection)
+	{
+		return tableName + '/' + id + '|' + (projection == null ? "*" : TextUtils.join(",", projection));
+	}
+
+	private void nextGeneration(String tableName)
+	{
+		mGenerations.put(tableName, getGeneration(tableName) + 1);
+	}
+
+	private void removeTableRows(String tableName)
+	{
+		nextGeneration(tableName);
+
+		Map<Long, Set<String>> tableKeys = mKeys.remove(tableName);
+
+		if (tableKeys != null)
+		{
+			for (Set<String> keys : tableKeys.values())
+			{
+				mRows.keySet().removeAll(keys);
+			}
+		}
+	}
+
+	private void indexKey(String tableName, long id, String key)
+	{
+		Map<Long, Set<String>> tableKeys = mKeys.get(tableName);
+
+		if (tableKeys == null)
+		{
+			tableKeys = new HashMap<>();
+			mKeys.put(tableName, tableKeys);
+		}
+
+		Set<String> keys = tableKeys.get(id);
+
+		if (keys == null)
+		{
+			keys = new HashSet<>();
+			tableKeys.put(id, keys);
+		}
+
+		keys.add(key);
+	}
+
+	private void unindexKey(String tableName, long id, String key)
+	{
+		Map<Long, Set<String>> tableKeys = mKeys.get(tableName);
+		Set<String> keys = tableKeys != null ? tableKeys.get(id) : null;
+
+		if (keys == null)
+		{
+			return;
+		}
+
+		keys.remove(key);
+
+		if (keys.isEmpty())
+		{
+			tableKeys.remove(id);
+
+			if (tableKeys.isEmpty())
+			{
+				mKeys.remove(tableName);
+			}
+		}
+	}
+
+	private void rememberBatchTable(String tableName)
+	{
+		Set<String> tables = mBatchTables.get();
+
+		if (tables != null)
+		{
+			tables.add(tableName);
+		}
+	}
+
+	/**
+	 * Values of a cached row, and the item it belongs to.
+	 */
+	private static class Row
+	{
+		public final String tableName;
+		public final long id;
+		public final String[] columnNames;
+		public final Object[] values;
+
+		public Row(String tableName, long id, String[] columnNames, Object[] values)
+		{
+			this.tableName = tableName;
+			this.id = id;
+			this.columnNames = columnNames;
+			this.values = values;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "StatementCache.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 21/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled statements, keyed by their SQL. A statement is checked out of the cache while it is
+ * being bound and executed, so a cached statement is never used by two threads at once. Threads that need the same
+ * statement at the same time each get their own instance, and only one of them is kept when they are released.
+ */
+class StatementCache
+{
+	private final int mMaxSize;
+
+	// Idle statements in least recently used order
+	private final LinkedHashMap<String, SQLiteStatement> mStatements;
+
+	// Checked out statements and the generation of the cache they were acquired in. The generation changes whenever
+	// the cache is cleared, so statements compiled against a closed database are not returned to the cache.
+	private final IdentityHashMap<SQLiteStatement, Integer> mCheckedOut = new IdentityHashMap<>();
+	private int mGeneration;
+
+	StatementCache(int maxSize)
+	{
+		mMaxSize = maxSize;
+		mStatements = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Takes the statement for the given SQL out of the cache, compiling it if there is no idle instance. The
+	 * statement has to be returned using {@link #release(String, SQLiteStatement)} once it has been executed.
+	 * @param db  Database to compile the statement against.
+	 * @param sql SQL of the statement.
+	 */
+	synchronized SQLiteStatement acquire(SQLiteDatabase db, String sql)
+	{
+		SQLiteStatement statement = mStatements.remove(sql);
+
+		if (statement == null)
+		{
+			statement = db.compileStatement(sql);
+		}
+
+		mCheckedOut.put(statement, mGeneration);
+		return statement;
+	}
+
+	/**
+	 * Returns the statement to the cache, evicting the least recently used statement if the cache is full. Statements
+	 * acquired before the cache was last cleared are closed instead.
+	 * @param sql       SQL the statement was acquired with.
+	 * @param statement The statement to return.
+	 */
+	synchronized void release(String sql, SQLiteStatement statement)
+	{
+		Integer generation = mCheckedOut.remove(statement);
+
+		if (generation == null || generation != mGeneration)
+		{
+			// Compiled against a database connection that has been closed since
+			statement.close();
+			return;
+		}
+
+		statement.clearBindings();
+
+		if (mStatements.containsKey(sql))
+		{
+			// Another thread already returned an instance of this statement
+			statement.close();
+			return;
+		}
+
+		mStatements.put(sql, statement);
+
+		if (mStatements.size() > mMaxSize)
+		{
+			Iterator<Map.Entry<String, SQLiteStatement>> eldest = mStatements.entrySet().iterator();
+			eldest.next().getValue().close();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Closes all idle statements. Must be called before the database the statements were compiled against is closed.
+	 * Statements that are checked out are closed when they are released.
+	 */
+	synchronized void clear()
+	{
+		for (SQLiteStatement statement : mStatements.values())
+		{
+			statement.close();
+		}
+
+		mStatements.clear();
+		mGeneration++;
+	}
+
+	// region Statement builders
+
+	/**
+	 * Returns the names of the columns in the given values, sorted so that they can be used to build a stable
+	 * statement for every row with the same set of columns.
+	 */
+	static String[] getSortedColumns(ContentValues values)
+	{
+		String[] columns = values.keySet().toArray(new String[values.size()]);
+		Arrays.sort(columns);
+
+		return columns;
+	}
+
+	/**
+	 * Builds an insert statement for the given columns.
+	 */
+	static String buildInsertSql(String tableName, String[] columns)
+	{
+		return buildInsertSql(tableName, columns, null);
+	}
+
+	/**
+	 * Builds an insert statement for the given columns with a conflict clause (e.g. "OR IGNORE").
+	 */
+	static String buildInsertSql(String tableName, String[] columns, String conflictClause)
+	{
+		String insert = conflictClause != null ? "INSERT " + conflictClause + " INTO " : "INSERT INTO ";
+
+		if (columns.length == 0)
+		{
+			return insert + tableName + " DEFAULT VALUES";
+		}
+
+		StringBuilder sql = new StringBuilder(insert).append(tableName).append(" (");
+		StringBuilder params = new StringBuilder();
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (i > 0)
+			{
+				sql.append(',');
+				params.append(',');
+			}
+
+			sql.append(columns[i]);
+			params.append('?');
+		}
+
+		return sql.append(") VALUES (").append(params).append(')').toString();
+	}
+
+	/**
+	 * Builds an update statement for the given columns of a single item. The item id is bound after the values.
+	 */
+	static String buildUpdateByIdSql(String tableName, String idColumn, String[] columns)
+	{
+		StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (i > 0)
+			{
+				sql.append(',');
+			}
+
+			sql.append(columns[i]).append("=?");
+		}
+
+		return sql.append(" WHERE ").append(idColumn).append("=?").toString();
+	}
+
+	/**
+	 * Builds a statement selecting the id of the row with the given key. The key is the only bound parameter.
+	 */
+	static String buildSelectIdByKeySql(String tableName, String idColumn, String keyColumn)
+	{
+		return "SELECT " + idColumn + " FROM " + tableName + " WHERE " + keyColumn + "=? LIMIT 1";
+	}
+
+	/**
+	 * Builds a delete statement for a single item. The item id is the only bound parameter.
+	 */
+	static String buildDeleteByIdSql(String tableName, String idColumn)
+	{
+		return "DELETE FROM " + tableName + " WHERE " + idColumn + "=?";
+	}
+
+	/**
+	 * Binds the values of the given columns to the statement parameters, in column order.
+	 */
+	static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values)
+	{
+		for (int i = 0; i < columns.length; i++)
+		{
+			bindValue(statement, i + 1, values.get(columns[i]));
+		}
+	}
+
+	/**
+	 * Binds a single value to the statement, using the SQLite type matching the value type.
+	 */
+	static void bindValue(SQLiteStatement statement, int index, Object value)
+	{
+		if (value == null)
+		{
+			statement.bindNull(index);
+		}
+		else if (value instanceof Double || value instanceof Float)
+		{
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		}
+		else if (value instanceof Number)
+		{
+			statement.bindLong(index, ((Number) value).longValue());
+		}
+		else if (value instanceof Boolean)
+		{
+			statement.bindLong(index, (Boolean) value ? 1 : 0);
+		}
+		else if (value instanceof byte[])
+		{
+			statement.bindBlob(index, (byte[]) value);
+		}
+		else
+		{
+			statement.bindString(index, value.toString());
+		}
+	}
+
+	// endregion
+}
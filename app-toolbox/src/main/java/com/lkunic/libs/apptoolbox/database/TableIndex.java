@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TableIndex.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 12/12/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+/**
+ * Declaration of a secondary index on a database table. The index is created in the database with its name prefixed
+ * by {@link #NAME_PREFIX}, which marks the indexes managed by the table declarations, so that indexes created
+ * otherwise (e.g. by migration steps) are left alone when the declared indexes are updated.
+ */
+public class TableIndex
+{
+	// Prefix of the names of the declared indexes in the database
+	public static final String NAME_PREFIX = "declared_";
+
+	private String mName;
+	private String[] mColumns;
+	private String[] mCoveringColumns;
+	private boolean mUnique;
+	private String mCondition;
+
+	/**
+	 * Creates an index on the given columns.
+	 * @param name    Name of the index, unique within the database.
+	 * @param columns Indexed columns, optionally followed by ASC or DESC.
+	 */
+	public static TableIndex create(String name, String... columns)
+	{
+		if (columns == null || columns.length == 0)
+		{
+			throw new IllegalArgumentException("Index " + name + " has no columns");
+		}
+
+		TableIndex index = new TableIndex();
+
+		index.mName = name;
+		index.mColumns = columns;
+
+		return index;
+	}
+
+	/**
+	 * Makes the index unique. Can not be combined with covering columns.
+	 */
+	public TableIndex unique()
+	{
+		if (mCoveringColumns != null)
+		{
+			throw new IllegalStateException("Index " + mName + " can not be both unique and covering");
+		}
+
+		this.mUnique = true;
+		return this;
+	}
+
+	/**
+	 * Adds columns to the end of the index key, so that queries reading only the indexed and covering columns are
+	 * answered from the index without reading the table rows. Can not be combined with unique(), as the covering
+	 * columns would become part of the unique key and weaken the constraint.
+	 */
+	public TableIndex covering(String... columns)
+	{
+		if (mUnique)
+		{
+			throw new IllegalStateException("Index " + mName + " can not be both unique and covering");
+		}
+
+		this.mCoveringColumns = columns;
+		return this;
+	}
+
+	/**
+	 * Makes the index partial, only the rows matching the condition are indexed. Partial indexes require SQLite
+	 * 3.8.0 (API 21+).
+	 */
+	public TableIndex where(String condition)
+	{
+		this.mCondition = condition;
+		return this;
+	}
+
+	/**
+	 * Returns the declared name of the index.
+	 */
+	public String getName()
+	{
+		return mName;
+	}
+
+	/**
+	 * Returns the name of the index in the database.
+	 */
+	public String getSqlName()
+	{
+		return NAME_PREFIX + mName;
+	}
+
+	/**
+	 * Builds the statement creating this index on the given table. The statement has the same form SQLite stores
+	 * in sqlite_master, so it can be used to check whether an existing index matches the declaration.
+	 */
+	String buildCreateSql(String tableName)
+	{
+		StringBuilder sql = new StringBuilder("CREATE ");
+
+		if (mUnique)
+		{
+			sql.append("UNIQUE ");
+		}
+
+		sql.append("INDEX ").append(getSqlName()).append(" ON ").append(tableName).append(" (");
+		appendColumns(sql, mColumns, false);
+
+		if (mCoveringColumns != null)
+		{
+			appendColumns(sql, mCoveringColumns, true);
+		}
+
+		sql.append(')');
+
+		if (mCondition != null)
+		{
+			sql.append(" WHERE ").append(mCondition);
+		}
+
+		return sql.toString();
+	}
+
+	private static void appendColumns(StringBuilder sql, String[] columns, boolean separatorFirst)
+	{
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (i > 0 || separatorFirst)
+			{
+				sql.append(", ");
+			}
+
+			sql.append(columns[i]);
+		}
+	}
+}
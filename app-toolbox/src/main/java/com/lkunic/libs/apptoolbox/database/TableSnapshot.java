@@ -0,0 +1,614 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TableSnapshot.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 03/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Streams the rows of database tables to and from a compact binary snapshot. Rows are written and read one at a time
+ * through a fixed size buffer, so the memory use does not depend on the size of the tables.
+ *
+ * The snapshot starts with a magic number and the format version, followed by the tables. Each table starts with
+ * its name and column names, followed by its rows, and ends with an end marker. Every value is stored as its type
+ * (the Cursor.FIELD_TYPE_* constant) followed by the value, strings and blobs are prefixed with their length.
+ */
+class TableSnapshot
+{
+	private static final int MAGIC = 0x4154534E;
+	private static final int FORMAT_VERSION = 1;
+
+	// Markers preceding the parts of the snapshot
+	private static final byte MARKER_END = 0;
+	private static final byte MARKER_TABLE = 1;
+	private static final byte MARKER_ROW = 2;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Protects against allocating huge arrays when reading a corrupted snapshot
+	private static final int MAX_VALUE_SIZE = 16 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Writes all rows of the given tables to the channel.
+	 * @return Number of written rows.
+	 */
+	static int export(SQLiteDatabase db, String[] tableNames, WritableByteChannel channel) throws IOException
+	{
+		Writer writer = new Writer(channel);
+		int rowCount = 0;
+
+		writer.writeInt(MAGIC);
+		writer.writeInt(FORMAT_VERSION);
+
+		// Read all tables in one transaction, so the snapshot is consistent
+		db.beginTransactionNonExclusive();
+		try
+		{
+			for (String tableName : tableNames)
+			{
+				rowCount += exportTable(db, tableName, writer);
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		writer.writeByte(MARKER_END);
+		writer.flush();
+
+		return rowCount;
+	}
+
+	/**
+	 * Inserts the rows read from the channel in one transaction. Existing rows with the same primary key are updated
+	 * in place instead of being replaced, as REPLACE deletes the existing row and with it the rows referencing it
+	 * through ON DELETE CASCADE foreign keys. A snapshot can therefore be imported again without losing local rows
+	 * of other tables. Rows conflicting with an existing row only on other unique columns are skipped, and rows of
+	 * tables without a primary key in the snapshot are always inserted. Nothing is imported if the snapshot is
+	 * invalid.
+	 * @param cache      Cache providing the insert statements.
+	 * @param tableNames Tables that can be imported, the snapshot is rejected if it contains any other table.
+	 * @return Number of imported rows, by table name.
+	 */
+	static Map<String, Integer> importInto(SQLiteDatabase db, StatementCache cache, Set<String> tableNames,
+			ReadableByteChannel channel) throws IOException
+	{
+		Reader reader = new Reader(channel);
+
+		if (reader.readInt() != MAGIC)
+		{
+			throw new DatabaseProviderException("Not a table snapshot");
+		}
+
+		int version = reader.readInt();
+		if (version != FORMAT_VERSION)
+		{
+			throw new DatabaseProviderException("Unsupported table snapshot version " + version);
+		}
+
+		Map<String, Integer> rowCounts = new LinkedHashMap<>();
+
+		db.beginTransaction();
+		try
+		{
+			while (reader.readByte() == MARKER_TABLE)
+			{
+				String tableName = reader.readString();
+
+				if (!tableNames.contains(tableName))
+				{
+					throw new DatabaseProviderException("Snapshot contains unknown table " + tableName);
+				}
+
+				Integer previousCount = rowCounts.get(tableName);
+				int rowCount = importTable(db, cache, tableName, reader);
+				rowCounts.put(tableName, previousCount != null ? previousCount + rowCount : rowCount);
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		return rowCounts;
+	}
+
+	private static int exportTable(SQLiteDatabase db, String tableName, Writer writer) throws IOException
+	{
+		Cursor cursor = db.query(tableName, null, null, null, null, null, null);
+		int rowCount = 0;
+
+		try
+		{
+			String[] columns = cursor.getColumnNames();
+
+			writer.writeByte(MARKER_TABLE);
+			writer.writeString(tableName);
+			writer.writeInt(columns.length);
+
+			for (String column : columns)
+			{
+				writer.writeString(column);
+			}
+
+			while (cursor.moveToNext())
+			{
+				writer.writeByte(MARKER_ROW);
+
+				for (int i = 0; i < columns.length; i++)
+				{
+					writeValue(writer, cursor, i);
+				}
+
+				rowCount++;
+			}
+
+			writer.writeByte(MARKER_END);
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		return rowCount;
+	}
+
+	private static void writeValue(Writer writer, Cursor cursor, int index) throws IOException
+	{
+		int type = cursor.getType(index);
+		writer.writeByte(type);
+
+		switch (type)
+		{
+			case Cursor.FIELD_TYPE_INTEGER:
+				writer.writeLong(cursor.getLong(index));
+				break;
+			case Cursor.FIELD_TYPE_FLOAT:
+				writer.writeDouble(cursor.getDouble(index));
+				break;
+			case Cursor.FIELD_TYPE_STRING:
+				writer.writeString(cursor.getString(index));
+				break;
+			case Cursor.FIELD_TYPE_BLOB:
+				writer.writeBytes(cursor.getBlob(index));
+				break;
+		}
+	}
+
+	private static int importTable(SQLiteDatabase db, StatementCache cache, String tableName, Reader reader)
+			throws IOException
+	{
+		String[] columns = new String[reader.readInt()];
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			columns[i] = reader.readString();
+		}
+
+		// Rows are matched to the existing rows by their primary key
+		List<Integer> keyIndexes = findPrimaryKey(db, tableName, columns);
+		List<Integer> valueIndexes = new ArrayList<>();
+
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (keyIndexes != null && !keyIndexes.contains(i))
+			{
+				valueIndexes.add(i);
+			}
+		}
+
+		// All rows of the table have the same columns, so they are written with the same compiled statements
+		String updateSql = keyIndexes != null && !valueIndexes.isEmpty() ?
+				buildUpdateSql(tableName, columns, valueIndexes, keyIndexes) : null;
+		String insertSql = StatementCache.buildInsertSql(tableName, columns, keyIndexes != null ? "OR IGNORE" : null);
+
+		SQLiteStatement update = updateSql != null ? cache.acquire(db, updateSql) : null;
+		SQLiteStatement insert = null;
+		int rowCount = 0;
+
+		try
+		{
+			insert = cache.acquire(db, insertSql);
+			Object[] values = new Object[columns.length];
+
+			byte marker;
+			while ((marker = reader.readByte()) == MARKER_ROW)
+			{
+				for (int i = 0; i < columns.length; i++)
+				{
+					values[i] = readValue(reader);
+				}
+
+				if (update != null)
+				{
+					int index = 1;
+
+					for (int i : valueIndexes)
+					{
+						bindValue(update, index++, values[i]);
+					}
+
+					for (int i : keyIndexes)
+					{
+						bindValue(update, index++, values[i]);
+					}
+
+					if (update.executeUpdateDelete() > 0)
+					{
+						rowCount++;
+						continue;
+					}
+				}
+
+				for (int i = 0; i < columns.length; i++)
+				{
+					bindValue(insert, i + 1, values[i]);
+				}
+
+				if (insert.executeInsert() != -1)
+				{
+					rowCount++;
+				}
+			}
+
+			if (marker != MARKER_END)
+			{
+				throw new DatabaseProviderException("Corrupted table snapshot");
+			}
+		}
+		finally
+		{
+			if (update != null)
+			{
+				cache.release(updateSql, update);
+			}
+
+			if (insert != null)
+			{
+				cache.release(insertSql, insert);
+			}
+		}
+
+		return rowCount;
+	}
+
+	/**
+	 * Returns the positions of the primary key columns of the table in the given columns, or null if the table has
+	 * no declared primary key or some of its columns are missing.
+	 */
+	private static List<Integer> findPrimaryKey(SQLiteDatabase db, String tableName, String[] columns)
+	{
+		Map<Integer, String> keyColumns = new TreeMap<>();
+		Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+
+		try
+		{
+			int nameIndex = cursor.getColumnIndexOrThrow("name");
+			int pkIndex = cursor.getColumnIndexOrThrow("pk");
+
+			while (cursor.moveToNext())
+			{
+				// Position of the column in the primary key, 0 if it is not part of it
+				int position = cursor.getInt(pkIndex);
+
+				if (position > 0)
+				{
+					keyColumns.put(position, cursor.getString(nameIndex));
+				}
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		if (keyColumns.isEmpty())
+		{
+			return null;
+		}
+
+		List<Integer> keyIndexes = new ArrayList<>();
+
+		for (String keyColumn : keyColumns.values())
+		{
+			int index = indexOfIgnoreCase(columns, keyColumn);
+
+			if (index < 0)
+			{
+				return null;
+			}
+
+			keyIndexes.add(index);
+		}
+
+		return keyIndexes;
+	}
+
+	private static int indexOfIgnoreCase(String[] columns, String column)
+	{
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (columns[i].equalsIgnoreCase(column))
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Builds a statement updating the value columns of the row with the given key, binding the values first and the
+	 * key columns after them.
+	 */
+	private static String buildUpdateSql(String tableName, String[] columns, List<Integer> valueIndexes,
+			List<Integer> keyIndexes)
+	{
+		StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+
+		for (int i = 0; i < valueIndexes.size(); i++)
+		{
+			sql.append(i > 0 ? "," : "").append(columns[valueIndexes.get(i)]).append("=?");
+		}
+
+		sql.append(" WHERE ");
+
+		for (int i = 0; i < keyIndexes.size(); i++)
+		{
+			sql.append(i > 0 ? " AND " : "").append(columns[keyIndexes.get(i)]).append("=?");
+		}
+
+		return sql.toString();
+	}
+
+	private static Object readValue(Reader reader) throws IOException
+	{
+		byte type = reader.readByte();
+
+		switch (type)
+		{
+			case Cursor.FIELD_TYPE_NULL:
+				return null;
+			case Cursor.FIELD_TYPE_INTEGER:
+				return reader.readLong();
+			case Cursor.FIELD_TYPE_FLOAT:
+				return reader.readDouble();
+			case Cursor.FIELD_TYPE_STRING:
+				return reader.readString();
+			case Cursor.FIELD_TYPE_BLOB:
+				return reader.readBytes();
+			default:
+				throw new DatabaseProviderException("Corrupted table snapshot");
+		}
+	}
+
+	private static void bindValue(SQLiteStatement statement, int index, Object value)
+	{
+		if (value == null)
+		{
+			statement.bindNull(index);
+		}
+		else if (value instanceof Long)
+		{
+			statement.bindLong(index, (Long) value);
+		}
+		else if (value instanceof Double)
+		{
+			statement.bindDouble(index, (Double) value);
+		}
+		else if (value instanceof String)
+		{
+			statement.bindString(index, (String) value);
+		}
+		else
+		{
+			statement.bindBlob(index, (byte[]) value);
+		}
+	}
+
+	/**
+	 * Writes values to a channel through a buffer.
+	 */
+	private static class Writer
+	{
+		private final WritableByteChannel mChannel;
+		private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		public Writer(WritableByteChannel channel)
+		{
+			mChannel = channel;
+		}
+
+		public void writeByte(int value) throws IOException
+		{
+			ensureSpace(1);
+			mBuffer.put((byte) value);
+		}
+
+		public void writeInt(int value) throws IOException
+		{
+			ensureSpace(4);
+			mBuffer.putInt(value);
+		}
+
+		public void writeLong(long value) throws IOException
+		{
+			ensureSpace(8);
+			mBuffer.putLong(value);
+		}
+
+		public void writeDouble(double value) throws IOException
+		{
+			ensureSpace(8);
+			mBuffer.putDouble(value);
+		}
+
+		public void writeString(String value) throws IOException
+		{
+			writeBytes(value.getBytes(UTF_8));
+		}
+
+		public void writeBytes(byte[] value) throws IOException
+		{
+			writeInt(value.length);
+
+			// Values bigger than the buffer are written in parts
+			int offset = 0;
+			while (offset < value.length)
+			{
+				ensureSpace(1);
+
+				int length = Math.min(mBuffer.remaining(), value.length - offset);
+				mBuffer.put(value, offset, length);
+				offset += length;
+			}
+		}
+
+		public void flush() throws IOException
+		{
+			mBuffer.flip();
+
+			while (mBuffer.hasRemaining())
+			{
+				mChannel.write(mBuffer);
+			}
+
+			mBuffer.clear();
+		}
+
+		private void ensureSpace(int bytes) throws IOException
+		{
+			if (mBuffer.remaining() < bytes)
+			{
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads values from a channel through a buffer.
+	 */
+	private static class Reader
+	{
+		private final ReadableByteChannel mChannel;
+		private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		public Reader(ReadableByteChannel channel)
+		{
+			mChannel = channel;
+
+			// Start with an empty buffer
+			mBuffer.flip();
+		}
+
+		public byte readByte() throws IOException
+		{
+			require(1);
+			return mBuffer.get();
+		}
+
+		public int readInt() throws IOException
+		{
+			require(4);
+			return mBuffer.getInt();
+		}
+
+		public long readLong() throws IOException
+		{
+			require(8);
+			return mBuffer.getLong();
+		}
+
+		public double readDouble() throws IOException
+		{
+			require(8);
+			return mBuffer.getDouble();
+		}
+
+		public String readString() throws IOException
+		{
+			return new String(readBytes(), UTF_8);
+		}
+
+		public byte[] readBytes() throws IOException
+		{
+			int length = readInt();
+
+			if (length < 0 || length > MAX_VALUE_SIZE)
+			{
+				throw new DatabaseProviderException("Corrupted table snapshot");
+			}
+
+			byte[] value = new byte[length];
+
+			// Values bigger than the buffer are read in parts
+			int offset = 0;
+			while (offset < length)
+			{
+				require(1);
+
+				int count = Math.min(mBuffer.remaining(), length - offset);
+				mBuffer.get(value, offset, count);
+				offset += count;
+			}
+
+			return value;
+		}
+
+		/**
+		 * Makes sure the buffer contains at least the given number of bytes, reading more from the channel if needed.
+		 * @throws EOFException If the channel ends first.
+		 */
+		private void require(int bytes) throws IOException
+		{
+			if (mBuffer.remaining() >= bytes)
+			{
+				return;
+			}
+
+			mBuffer.compact();
+
+			while (mBuffer.position() < bytes)
+			{
+				if (mChannel.read(mBuffer) == -1)
+				{
+					throw new EOFException("Table snapshot ends unexpectedly");
+				}
+			}
+
+			mBuffer.flip();
+		}
+	}
+}
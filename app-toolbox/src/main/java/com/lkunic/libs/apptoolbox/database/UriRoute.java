@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "UriRoute.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 18/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+
+/**
+ * Describes the table a content uri resolves to. Everything needed to execute an operation on the uri is resolved
+ * once, when the route is registered.
+ */
+class UriRoute
+{
+	private final DatabaseTable mTable;
+	private final String mTableName;
+	private final String mIdColumn;
+	private final String mMimeType;
+	private final Uri mCollectionUri;
+	private final boolean mIsItem;
+	private final boolean mIsJoin;
+
+	/**
+	 * Creates a route to a single table.
+	 */
+	UriRoute(DatabaseTable table, String mimeType, Uri collectionUri, boolean isItem)
+	{
+		mTable = table;
+		mTableName = table.getTableName();
+		mIdColumn = table.getIdColumn();
+		mMimeType = mimeType;
+		mCollectionUri = collectionUri;
+		mIsItem = isItem;
+		mIsJoin = false;
+	}
+
+	/**
+	 * Creates a read-only route to a join of several tables.
+	 */
+	UriRoute(DbJoin join, String mimeType, Uri collectionUri, boolean isItem)
+	{
+		DatabaseTable baseTable = join.getBaseType().getDatabaseTable();
+
+		mTable = null;
+		mTableName = join.getTables();
+		mIdColumn = baseTable.getTableName() + "." + baseTable.getIdColumn();
+		mMimeType = mimeType;
+		mCollectionUri = collectionUri;
+		mIsItem = isItem;
+		mIsJoin = true;
+	}
+
+	/**
+	 * Returns the table this route operates on, or null for join routes.
+	 */
+	DatabaseTable getTable()
+	{
+		return mTable;
+	}
+
+	/**
+	 * Returns the name of the table this route operates on, or the join expression for join routes.
+	 */
+	String getTableName()
+	{
+		return mTableName;
+	}
+
+	/**
+	 * Returns the name of the id column used for item uris, qualified with the table name for join routes.
+	 */
+	String getIdColumn()
+	{
+		return mIdColumn;
+	}
+
+	/**
+	 * Returns the MIME type of the data this route returns.
+	 */
+	String getMimeType()
+	{
+		return mMimeType;
+	}
+
+	/**
+	 * Returns the collection uri of the item type, used for change notifications.
+	 */
+	Uri getCollectionUri()
+	{
+		return mCollectionUri;
+	}
+
+	/**
+	 * Returns true if the route points to a single item (the uri ends with an item id).
+	 */
+	boolean isItem()
+	{
+		return mIsItem;
+	}
+
+	/**
+	 * Returns true if the route points to a join of several tables. Join routes are read-only.
+	 */
+	boolean isJoin()
+	{
+		return mIsJoin;
+	}
+}
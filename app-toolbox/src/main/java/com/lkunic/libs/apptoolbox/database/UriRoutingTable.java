@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "UriRoutingTable.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 18/11/2015.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps content uris of a single authority to their routes. Collection uris are resolved with one lookup of the uri
+ * path, item uris with one lookup of the path without the trailing id. Paths can contain any number of segments.
+ */
+class UriRoutingTable
+{
+	private final String mAuthority;
+
+	// Routes keyed by the collection path (without leading and trailing slashes)
+	private final Map<String, UriRoute> mCollectionRoutes = new HashMap<>();
+	private final Map<String, UriRoute> mItemRoutes = new HashMap<>();
+
+	UriRoutingTable(String authority)
+	{
+		mAuthority = authority;
+	}
+
+	/**
+	 * Registers the routes for a collection path and the item uris below it.
+	 * @param path            Collection path of the item type.
+	 * @param collectionRoute Route used for the collection uri.
+	 * @param itemRoute       Route used for item uris (collection path followed by a numeric id).
+	 */
+	void addRoutes(String path, UriRoute collectionRoute, UriRoute itemRoute)
+	{
+		String key = normalizePath(path);
+
+		if (mCollectionRoutes.containsKey(key))
+		{
+			throw new IllegalArgumentException("Uri path registered more than once: " + path);
+		}
+
+		mCollectionRoutes.put(key, collectionRoute);
+		mItemRoutes.put(key, itemRoute);
+	}
+
+	/**
+	 * Returns the route registered for the given collection path, or null if there is none.
+	 */
+	UriRoute getCollectionRoute(String path)
+	{
+		return mCollectionRoutes.get(normalizePath(path));
+	}
+
+	/**
+	 * Resolves the route for the given uri.
+	 * @return The matching route, or null if the uri doesn't belong to this table.
+	 */
+	UriRoute resolve(Uri uri)
+	{
+		if (!mAuthority.equals(uri.getAuthority()))
+		{
+			return null;
+		}
+
+		String path = uri.getPath();
+		if (path == null)
+		{
+			return null;
+		}
+
+		path = normalizePath(path);
+
+		UriRoute route = mCollectionRoutes.get(path);
+		if (route != null)
+		{
+			return route;
+		}
+
+		// Check for an item uri, the last segment has to be a numeric id
+		int separator = path.lastIndexOf('/');
+		if (separator <= 0 || separator == path.length() - 1)
+		{
+			return null;
+		}
+
+		for (int i = separator + 1, n = path.length(); i < n; i++)
+		{
+			// Only ASCII digits, Character.isDigit() also accepts digits of other scripts
+			char c = path.charAt(i);
+			if (c < '0' || c > '9')
+			{
+				return null;
+			}
+		}
+
+		return mItemRoutes.get(path.substring(0, separator));
+	}
+
+	/**
+	 * Strips the leading and trailing slashes from the path.
+	 */
+	private static String normalizePath(String path)
+	{
+		int start = 0;
+		int end = path.length();
+
+		while (start < end && path.charAt(start) == '/')
+		{
+			start++;
+		}
+
+		while (end > start && path.charAt(end - 1) == '/')
+		{
+			end--;
+		}
+
+		return path.substring(start, end);
+	}
+}
@@ -18,13 +18,21 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.lkunic.libs.apptoolbox.database.QueryPager;
+
 /**
  * Base for creating an adapter that populates a list with cursor data received from a data set.
  */
 public abstract class ItemListCursorAdapter extends CursorAdapter
 {
+	// Number of rows before the end of the loaded data at which the next page starts loading
+	private static final int PAGE_PREFETCH_DISTANCE = 10;
+
 	private LayoutInflater mLayoutInflater;
 
+	// Pager providing the data page by page, null if the whole cursor is set at once
+	private QueryPager mPager;
+
 	public ItemListCursorAdapter(Context context, Cursor c)
 	{
 		super(context, c, 0);
@@ -32,6 +40,70 @@ public abstract class ItemListCursorAdapter extends CursorAdapter
 		mLayoutInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 	}
 
+	/**
+	 * Sets a pager that provides the data page by page. The first page is requested immediately and the following
+	 * pages are requested as the list scrolls towards the end of the loaded data. A previously set pager is closed,
+	 * so pages still loading for it are not shown.
+	 * @param pager The pager to load data from, or null to stop paging.
+	 */
+	public void setPager(QueryPager pager)
+	{
+		if (mPager != null && mPager != pager)
+		{
+			mPager.setOnPageLoadedListener(null);
+
+			// The adapter shows the cursor of the old pager, which is closed with it
+			if (getCursor() == mPager.getCursor())
+			{
+				swapCursor(null);
+			}
+
+			mPager.close();
+		}
+
+		mPager = pager;
+
+		if (pager != null)
+		{
+			pager.setOnPageLoadedListener(new QueryPager.OnPageLoadedListener()
+			{
+				@Override
+				public void onPageLoaded(Cursor cursor)
+				{
+					// The pager owns the pages and releases the previous cursor, so it must not be closed here
+					swapCursor(cursor);
+				}
+
+				@Override
+				public void onPageFailed(Exception e)
+				{
+					onPageLoadFailed(e);
+				}
+			});
+
+			pager.loadNextPage();
+		}
+	}
+
+	/**
+	 * Override to handle a page that failed to load, e.g. to show an error. No further pages are loaded.
+	 * @param e The exception thrown by the page query.
+	 */
+	protected void onPageLoadFailed(Exception e)
+	{
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent)
+	{
+		if (mPager != null && position >= getCount() - PAGE_PREFETCH_DISTANCE)
+		{
+			mPager.loadNextPage();
+		}
+
+		return super.getView(position, convertView, parent);
+	}
+
 	@Override
 	public View newView(Context context, Cursor cursor, ViewGroup parent)
 	{
@@ -67,7 +139,8 @@ public abstract class ItemListCursorAdapter extends CursorAdapter
 
 	/**
 	 * Implement this to set up content of the view. The view is already inflated and should contain a
-	 * ViewHolder object (if it has been added as a tag to the view in setupViewHolder() method).
+	 * ViewHolder object (if it has been added as a tag to the view in setupViewHolder() method). A CursorMapper can
+	 * be used to read the row without looking up the column indices for every row.
 	 * @param view   ConvertView that is used to display data for a single grid item.
 	 * @param cursor Cursor containing data for the grid item.
 	 */
@@ -15,6 +15,10 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.View;
 
+import com.lkunic.libs.apptoolbox.database.DbQuery;
+import com.lkunic.libs.apptoolbox.database.QueryObserver;
+import com.lkunic.libs.apptoolbox.database.QueryTask;
+
 /**
  * Base class for a detail fragment in the TwoPane master-detail flow.
  */
@@ -26,6 +30,12 @@ public abstract class ItemDetailFragment extends Fragment
 	// Id of the item that was selected in the list
 	private long mItemId;
 
+	// Query started by this fragment that hasn't delivered its result yet
+	private QueryTask mActiveQuery;
+
+	// Query whose results are kept up to date while the fragment exists
+	private QueryObserver mQueryObserver;
+
 	@Override
 	public void onCreate(Bundle savedInstanceState)
 	{
@@ -47,6 +57,66 @@ public abstract class ItemDetailFragment extends Fragment
 		outState.putLong(ARG_ITEM_ID, mItemId);
 	}
 
+	@Override
+	public void onDestroyView()
+	{
+		super.onDestroyView();
+
+		// The views can no longer display the result, also when the fragment is kept on the back stack
+		cancelActiveQuery();
+		stopObservingQuery();
+	}
+
+	/**
+	 * Executes the query off the main thread and delivers the result to the listener. A query still running from a
+	 * previous call is cancelled, so quickly switching between items only completes the query for the last one.
+	 * @param query    Query to execute.
+	 * @param listener Listener that receives the result on the main thread.
+	 */
+	protected void executeQuery(DbQuery query, DbQuery.OnQueryCompletedListener listener)
+	{
+		cancelActiveQuery();
+		mActiveQuery = query.executeAsync(listener);
+	}
+
+	/**
+	 * Cancels the query started with executeQuery(), if it is still running.
+	 */
+	protected void cancelActiveQuery()
+	{
+		if (mActiveQuery != null)
+		{
+			mActiveQuery.cancel();
+			mActiveQuery = null;
+		}
+	}
+
+	/**
+	 * Executes the query off the main thread and again whenever the item data changes, delivering a new result only
+	 * if it differs from the previous one, so writes that don't affect the item don't rebind the views. A query
+	 * observed from a previous call is stopped.
+	 * @param query          Query to observe.
+	 * @param debounceMillis Time in milliseconds to wait for further changes before the query is executed again.
+	 * @param listener       Listener that receives the results on the main thread.
+	 */
+	protected void observeQuery(DbQuery query, long debounceMillis, DbQuery.OnQueryCompletedListener listener)
+	{
+		stopObservingQuery();
+		mQueryObserver = query.observe(debounceMillis, listener);
+	}
+
+	/**
+	 * Stops observing the query started with observeQuery().
+	 */
+	protected void stopObservingQuery()
+	{
+		if (mQueryObserver != null)
+		{
+			mQueryObserver.stop();
+			mQueryObserver = null;
+		}
+	}
+
 	/**
 	 * Refresh the fragment content. Assumes a new item id was set.
 	 */
@@ -79,7 +149,7 @@ public abstract class ItemDetailFragment extends Fragment
 	// region Abstract methods
 
 	/**
-	 * Use to get the item data from the database.
+	 * Use to get the item data from the database. Prefer executeQuery() for loading the data asynchronously.
 	 */
 	protected abstract void getItemData();
 
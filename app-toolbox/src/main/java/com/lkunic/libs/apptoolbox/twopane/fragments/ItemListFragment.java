@@ -22,6 +22,8 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 
 import com.lkunic.libs.apptoolbox.R;
+import com.lkunic.libs.apptoolbox.database.DbQuery;
+import com.lkunic.libs.apptoolbox.database.QueryTask;
 
 /**
  * Base class for implementing a list fragment for the TwoPane master-detail flow.
@@ -45,6 +47,9 @@ public abstract class ItemListFragment extends Fragment
 	// The fragment's current callback object, which is notified of list item clicks
 	private OnItemSelectedListener mListener = sDummyListener;
 
+	// Query started by this fragment that hasn't delivered its result yet
+	private QueryTask mActiveQuery;
+
 	@Override
 	public void onAttach(Activity activity)
 	{
@@ -97,6 +102,39 @@ public abstract class ItemListFragment extends Fragment
 		mListener = sDummyListener;
 	}
 
+	@Override
+	public void onDestroyView()
+	{
+		super.onDestroyView();
+
+		// The views can no longer display the result, also when the fragment is kept on the back stack
+		cancelActiveQuery();
+	}
+
+	/**
+	 * Executes the query off the main thread and delivers the result to the listener. A query still running from a
+	 * previous call is cancelled, so only the result of the latest query is delivered.
+	 * @param query    Query to execute.
+	 * @param listener Listener that receives the result on the main thread.
+	 */
+	protected void executeQuery(DbQuery query, DbQuery.OnQueryCompletedListener listener)
+	{
+		cancelActiveQuery();
+		mActiveQuery = query.executeAsync(listener);
+	}
+
+	/**
+	 * Cancels the query started with executeQuery(), if it is still running.
+	 */
+	protected void cancelActiveQuery()
+	{
+		if (mActiveQuery != null)
+		{
+			mActiveQuery.cancel();
+			mActiveQuery = null;
+		}
+	}
+
 	/**
 	 * Implement to set up list adapter and content. You can extend the ItemListCursorAdapter and use
 	 * it for populating your list using a cursor.
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "Benchmark.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+/**
+ * Measures the average duration of an operation in the micro-benchmark tests. The numbers are only comparable
+ * between the variants measured in the same test, as the tests run on the JVM against Robolectric's SQLite.
+ */
+final class Benchmark
+{
+	// Runs before the measurement so that class loading and statement compilation are not measured
+	static final int WARMUP_ITERATIONS = 50;
+
+	private Benchmark()
+	{
+	}
+
+	/**
+	 * Runs the operation the given number of times after a warmup and returns its average duration.
+	 * @return Average duration of one run in nanoseconds.
+	 */
+	static long measure(int iterations, Runnable operation)
+	{
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+		{
+			operation.run();
+		}
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++)
+		{
+			operation.run();
+		}
+
+		return (System.nanoTime() - startTime) / iterations;
+	}
+
+	/**
+	 * Prints the measured durations of the variants of a benchmark, relative to the first one.
+	 * @param name     Name of the benchmark.
+	 * @param variants Alternating variant names (String) and durations in nanoseconds (Long).
+	 */
+	static void report(String name, Object... variants)
+	{
+		StringBuilder report = new StringBuilder(name).append(':');
+		long baseline = (Long) variants[1];
+
+		for (int i = 0; i < variants.length; i += 2)
+		{
+			long nanos = (Long) variants[i + 1];
+			report.append(String.format(" %s %d ns/op (%.2fx)", variants[i], nanos, (double) nanos / baseline));
+		}
+
+		System.out.println(report);
+	}
+}
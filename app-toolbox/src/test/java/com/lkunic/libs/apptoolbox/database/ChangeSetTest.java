@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "ChangeSetTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ChangeSetTest
+{
+	private static final Uri URI = Uri.parse("content://com.lkunic.libs.apptoolbox.test/items");
+
+	@Test
+	public void reportsDeletedRowsOnlyAsDeleted()
+	{
+		ChangeSet changeSet = new ChangeSet(URI);
+		changeSet.add(ChangeSet.OPERATION_INSERT, new long[] { 1, 2 });
+		changeSet.add(ChangeSet.OPERATION_UPDATE, new long[] { 3 });
+		changeSet.add(ChangeSet.OPERATION_DELETE, new long[] { 1, 3 });
+
+		assertEquals(ids(2), changeSet.getInsertedIds());
+		assertEquals(ids(), changeSet.getUpdatedIds());
+		assertEquals(ids(1, 3), changeSet.getDeletedIds());
+		assertTrue(changeSet.isComplete());
+	}
+
+	@Test
+	public void reportsUpdatedInsertsAsInserted()
+	{
+		ChangeSet changeSet = new ChangeSet(URI);
+		changeSet.add(ChangeSet.OPERATION_INSERT, new long[] { 1 });
+		changeSet.add(ChangeSet.OPERATION_UPDATE, new long[] { 1, 2 });
+
+		assertEquals(ids(1), changeSet.getInsertedIds());
+		assertEquals(ids(2), changeSet.getUpdatedIds());
+	}
+
+	@Test
+	public void becomesIncompleteWhenTooManyRowsChange()
+	{
+		long[] ids = new long[ChangeSet.MAX_IDS];
+		for (int i = 0; i < ids.length; i++)
+		{
+			ids[i] = i + 1;
+		}
+
+		ChangeSet changeSet = new ChangeSet(URI);
+		changeSet.add(ChangeSet.OPERATION_UPDATE, ids);
+		assertTrue(changeSet.isComplete());
+
+		changeSet.add(ChangeSet.OPERATION_DELETE, new long[] { ChangeSet.MAX_IDS + 1 });
+
+		assertFalse(changeSet.isComplete());
+		assertTrue(changeSet.getUpdatedIds().isEmpty());
+		assertTrue(changeSet.getDeletedIds().isEmpty());
+
+		// Incomplete change sets are notified on the plain collection uri
+		assertEquals(URI, changeSet.toUri());
+	}
+
+	@Test
+	public void becomesIncompleteForUnknownRows()
+	{
+		ChangeSet changeSet = new ChangeSet(URI);
+		changeSet.add(ChangeSet.OPERATION_INSERT, new long[] { 1 });
+		changeSet.add(ChangeSet.OPERATION_UPDATE, null);
+
+		assertFalse(changeSet.isComplete());
+		assertTrue(changeSet.getInsertedIds().isEmpty());
+	}
+
+	@Test
+	public void parsesTheNotificationUri()
+	{
+		ChangeSet changeSet = new ChangeSet(URI);
+		changeSet.add(ChangeSet.OPERATION_INSERT, new long[] { 1, 2 });
+		changeSet.add(ChangeSet.OPERATION_UPDATE, new long[] { 3 });
+		changeSet.add(ChangeSet.OPERATION_DELETE, new long[] { 4 });
+
+		ChangeSet parsed = ChangeSet.parse(changeSet.toUri());
+
+		assertEquals(URI, parsed.getUri());
+		assertTrue(parsed.isComplete());
+		assertEquals(ids(1, 2), parsed.getInsertedIds());
+		assertEquals(ids(3), parsed.getUpdatedIds());
+		assertEquals(ids(4), parsed.getDeletedIds());
+	}
+
+	@Test
+	public void parsesUrisWithoutIdsAsIncomplete()
+	{
+		assertFalse(ChangeSet.parse(URI).isComplete());
+		assertFalse(ChangeSet.parse(URI.buildUpon().appendQueryParameter("updated", "1,x").build()).isComplete());
+
+		ChangeSet unknown = ChangeSet.parse(null);
+		assertFalse(unknown.isComplete());
+		assertNull(unknown.getUri());
+	}
+
+	private static Set<Long> ids(long... ids)
+	{
+		Set<Long> set = new LinkedHashSet<>();
+
+		for (long id : ids)
+		{
+			set.add(id);
+		}
+
+		return set;
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "CursorMapperTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class CursorMapperTest
+{
+	private static final int BENCHMARK_ROWS = 1000;
+	private static final int ITERATIONS = 100;
+
+	// Number of rows mapped by each thread of the concurrency test
+	private static final int CONCURRENT_MAPS = 20000;
+
+	@Test
+	public void mapsColumnsByName()
+	{
+		MatrixCursor cursor = new MatrixCursor(new String[] { "name", "price", "_id", "quantity" });
+		cursor.addRow(new Object[] { "first", 1.5, 1L, 10L });
+		cursor.addRow(new Object[] { "second", 2.5, 2L, 20L });
+
+		List<Item> items = new ItemMapper().mapAll(cursor);
+
+		assertEquals(2, items.size());
+		assertEquals(2, items.get(1).id);
+		assertEquals("second", items.get(1).name);
+		assertEquals(20, items.get(1).quantity);
+		assertEquals(2.5, items.get(1).price, 0);
+	}
+
+	@Test
+	public void missingColumnsAreNotRead()
+	{
+		MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+		cursor.addRow(new Object[] { 7L });
+		cursor.moveToFirst();
+
+		Item item = new ItemMapper().map(cursor);
+
+		assertEquals(7, item.id);
+		assertNull(item.name);
+	}
+
+	@Test
+	public void sharedMapperResolvesColumnsPerCursor() throws InterruptedException
+	{
+		final ItemMapper mapper = new ItemMapper();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		// The cursors have the columns in different orders, mixing up their indices maps the wrong values
+		final Cursor[] cursors = {
+				singleRow(new String[] { "_id", "name", "quantity", "price" }, new Object[] { 1L, "a", 10L, 1.0 }),
+				singleRow(new String[] { "price", "quantity", "name", "_id" }, new Object[] { 2.0, 20L, "b", 2L })
+		};
+
+		List<Thread> threads = new ArrayList<>();
+
+		for (int t = 0; t < cursors.length; t++)
+		{
+			final Cursor cursor = cursors[t];
+			final long expectedId = t + 1;
+
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+
+						for (int i = 0; i < CONCURRENT_MAPS; i++)
+						{
+							Item item = mapper.map(cursor);
+							assertEquals(expectedId, item.id);
+							assertEquals(expectedId * 10, item.quantity);
+						}
+					}
+					catch (Throwable e)
+					{
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		if (failure.get() != null)
+		{
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	public void benchmarkColumnResolution()
+	{
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, quantity INTEGER, price REAL)");
+
+		SQLiteStatement insert = db.compileStatement("INSERT INTO items (name, quantity, price) VALUES (?, ?, ?)");
+		for (int i = 0; i < BENCHMARK_ROWS; i++)
+		{
+			insert.bindString(1, "item " + i);
+			insert.bindLong(2, i);
+			insert.bindDouble(3, i * 0.5);
+			insert.executeInsert();
+		}
+
+		final Cursor cursor = db.query("items", ItemMapper.COLUMNS, null, null, null, null, null);
+		final ItemMapper mapper = new ItemMapper();
+
+		try
+		{
+			long naiveNanos = Benchmark.measure(ITERATIONS, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// Looking up the column indices for every row
+					List<Item> items = new ArrayList<>(cursor.getCount());
+
+					cursor.moveToPosition(-1);
+					while (cursor.moveToNext())
+					{
+						Item item = new Item();
+						item.id = cursor.getLong(cursor.getColumnIndex("_id"));
+						item.name = cursor.getString(cursor.getColumnIndex("name"));
+						item.quantity = cursor.getLong(cursor.getColumnIndex("quantity"));
+						item.price = cursor.getDouble(cursor.getColumnIndex("price"));
+						items.add(item);
+					}
+
+					assertEquals(BENCHMARK_ROWS, items.size());
+				}
+			});
+
+			long mapperNanos = Benchmark.measure(ITERATIONS, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					assertEquals(BENCHMARK_ROWS, mapper.mapAll(cursor).size());
+				}
+			});
+
+			Benchmark.report("map " + BENCHMARK_ROWS + " rows", "getColumnIndex per row", naiveNanos,
+					"CursorMapper", mapperNanos);
+		}
+		finally
+		{
+			cursor.close();
+			db.close();
+		}
+	}
+
+	private static Cursor singleRow(String[] columns, Object[] values)
+	{
+		MatrixCursor cursor = new MatrixCursor(columns);
+		cursor.addRow(values);
+		cursor.moveToFirst();
+
+		return cursor;
+	}
+
+	private static class Item
+	{
+		public long id;
+		public String name;
+		public long quantity;
+		public double price;
+	}
+
+	private static class ItemMapper extends CursorMapper<Item>
+	{
+		public static final String[] COLUMNS = { "_id", "name", "quantity", "price" };
+
+		public ItemMapper()
+		{
+			super(COLUMNS);
+		}
+
+		@Override
+		protected Item mapRow(Cursor cursor, int[] columnIndices)
+		{
+			Item item = new Item();
+
+			item.id = cursor.getLong(columnIndices[0]);
+
+			if (columnIndices[1] != -1)
+			{
+				item.name = cursor.getString(columnIndices[1]);
+				item.quantity = cursor.getLong(columnIndices[2]);
+				item.price = cursor.getDouble(columnIndices[3]);
+			}
+
+			return item;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DatabaseHelperBenchmarkTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares writes on the long-lived connection of DatabaseHelper with opening and closing the database around every
+ * write.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class DatabaseHelperBenchmarkTest
+{
+	private static final int ITERATIONS = 500;
+
+	private DatabaseHelper mHelper;
+
+	@Before
+	public void setUp()
+	{
+		mHelper = new DatabaseHelper(RuntimeEnvironment.application, "benchmark.db", 1,
+				new DatabaseTable[] { TestTable.items("items") });
+	}
+
+	@After
+	public void tearDown()
+	{
+		mHelper.shutdown();
+	}
+
+	@Test
+	public void getDatabaseKeepsTheConnectionOpen()
+	{
+		SQLiteDatabase db = mHelper.getDatabase();
+
+		assertSame(db, mHelper.getDatabase());
+		assertTrue(db.isOpen());
+
+		mHelper.shutdown();
+
+		// Reopened on the next use
+		SQLiteDatabase reopened = mHelper.getDatabase();
+
+		assertNotSame(db, reopened);
+		assertTrue(reopened.isOpen());
+	}
+
+	@Test
+	public void benchmarkLongLivedConnection()
+	{
+		final ContentValues values = new ContentValues();
+		values.put("name", "item");
+
+		long reopenNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// Previous behaviour, the database was closed after every operation
+				SQLiteDatabase db = mHelper.getWritableDatabase();
+				db.insert("items", null, values);
+				mHelper.close();
+			}
+		});
+
+		long longLivedNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				mHelper.getDatabase().insert("items", null, values);
+			}
+		});
+
+		Benchmark.report("insert", "reopen", reopenNanos, "long-lived", longLivedNanos);
+
+		// Both variants wrote all of their rows
+		long rowCount = DatabaseUtils.queryNumEntries(mHelper.getDatabase(), "items");
+		assertEquals(2 * (Benchmark.WARMUP_ITERATIONS + ITERATIONS), rowCount);
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DatabaseUpgradeTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a version 1 database to version 4, with and without table migrations, and reports how long the upgrade
+ * takes.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class DatabaseUpgradeTest
+{
+	private static final String DATABASE_NAME = "upgrade.db";
+	private static final int ROW_COUNT = 2000;
+
+	private DatabaseHelper mHelper;
+
+	@Before
+	public void setUp()
+	{
+		// Version 1 only has the items table
+		DatabaseHelper helper = new DatabaseHelper(RuntimeEnvironment.application, DATABASE_NAME, 1,
+				new DatabaseTable[] { TestTable.items("items") });
+
+		SQLiteDatabase db = helper.getDatabase();
+		ContentValues values = new ContentValues();
+
+		db.beginTransaction();
+		try
+		{
+			for (int i = 0; i < ROW_COUNT; i++)
+			{
+				values.put("name", "item " + i);
+				db.insert("items", null, values);
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		helper.shutdown();
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (mHelper != null)
+		{
+			mHelper.shutdown();
+		}
+	}
+
+	@Test
+	public void upgradeWithMigrations()
+	{
+		TestTable items = new TestTable("items",
+				"CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, quantity INTEGER NOT NULL DEFAULT 0, " +
+						"category_id INTEGER)")
+				.withMigrations(
+						Migration.sql(2, "ALTER TABLE items ADD COLUMN quantity INTEGER NOT NULL DEFAULT 0"),
+						Migration.sql(3, "UPDATE items SET quantity = _id % 10"),
+						Migration.sql(4, "ALTER TABLE items ADD COLUMN category_id INTEGER"))
+				.withIndexes(TableIndex.create("items_quantity", "quantity"));
+
+		// Added in version 4, its steps describe versions the database never had
+		TestTable categories = new TestTable("categories", "CREATE TABLE categories (_id INTEGER PRIMARY KEY, " +
+				"title TEXT)")
+				.withMigrations(Migration.sql(4, "ALTER TABLE categories ADD COLUMN title TEXT"));
+
+		SQLiteDatabase db = upgrade("migrations", items, categories);
+
+		// The data is kept and migrated
+		assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, "items"));
+		assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT quantity FROM items WHERE _id = 13", null));
+		assertTrue(hasColumn(db, "items", "category_id"));
+		assertEquals(1, DatabaseUtils.longForQuery(db,
+				"SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = 'declared_items_quantity'", null));
+
+		// The new table is created even though it declares migrations
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, "categories"));
+		assertTrue(hasColumn(db, "categories", "title"));
+	}
+
+	@Test
+	public void upgradeWithoutMigrations()
+	{
+		TestTable items = new TestTable("items",
+				"CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, quantity INTEGER NOT NULL DEFAULT 0)");
+
+		SQLiteDatabase db = upgrade("recreate", items, TestTable.items("categories"));
+
+		// Tables without migrations are recreated with the new schema, losing their data
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, "items"));
+		assertTrue(hasColumn(db, "items", "quantity"));
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, "categories"));
+	}
+
+	/**
+	 * Opens the database with version 4 of the given tables, and reports the duration of the upgrade.
+	 */
+	private SQLiteDatabase upgrade(String name, DatabaseTable... tables)
+	{
+		mHelper = new DatabaseHelper(RuntimeEnvironment.application, DATABASE_NAME, 4, tables);
+
+		long startTime = System.nanoTime();
+		SQLiteDatabase db = mHelper.getDatabase();
+		long duration = System.nanoTime() - startTime;
+
+		System.out.println(String.format("upgrade %d rows from version 1 to 4 (%s): %d us", ROW_COUNT, name,
+				duration / 1000));
+
+		assertEquals(4, db.getVersion());
+		return db;
+	}
+
+	private static boolean hasColumn(SQLiteDatabase db, String tableName, String column)
+	{
+		Cursor cursor = db.rawQuery("SELECT * FROM " + tableName + " LIMIT 0", null);
+
+		try
+		{
+			return cursor.getColumnIndex(column) != -1;
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
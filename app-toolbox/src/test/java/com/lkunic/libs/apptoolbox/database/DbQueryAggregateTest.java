@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbQueryAggregateTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentValues;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class DbQueryAggregateTest
+{
+	private TestDbContentProvider mProvider;
+
+	@Before
+	public void setUp()
+	{
+		mProvider = TestDbContentProvider.create();
+
+		insertCategory("fruit");
+		insertCategory("stone fruit");
+		insert("pear", 3, 1);
+		insert("apple", 2, 1);
+		insert("plum", 5, 2);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mProvider.shutdown();
+	}
+
+	@Test
+	public void computesNumericAggregates()
+	{
+		assertEquals(3L, query().count());
+		assertEquals(5L, query().aggregate(DbQuery.MAX, "quantity"));
+		assertEquals(10.0 / 3, query().aggregate(DbQuery.AVG, "quantity").doubleValue(), 1e-9);
+
+		Map<String, Number> sums = query().aggregateBy(DbQuery.SUM, "quantity", "category_id");
+		assertEquals(5L, sums.get("1"));
+		assertEquals(5L, sums.get("2"));
+	}
+
+	@Test
+	public void computesTextAggregates()
+	{
+		assertEquals("apple", query().aggregateText(DbQuery.MIN, "name"));
+		assertEquals("plum", query().aggregateText(DbQuery.MAX, "name"));
+
+		Map<String, String> maxNames = query().aggregateTextBy(DbQuery.MAX, "name", "category_id");
+		assertEquals("pear", maxNames.get("1"));
+		assertEquals("plum", maxNames.get("2"));
+
+		// Numeric values can be read as text as well
+		assertEquals("5", query().aggregateText(DbQuery.MAX, "quantity"));
+	}
+
+	@Test
+	public void returnsNullWithoutValues()
+	{
+		assertNull(query().select("quantity > ?", 10).aggregateText(DbQuery.MAX, "name"));
+	}
+
+	@Test(expected = DatabaseProviderException.class)
+	public void rejectsTextAsNumber()
+	{
+		query().aggregate(DbQuery.MAX, "name");
+	}
+
+	@Test(expected = DatabaseProviderException.class)
+	public void rejectsGroupedTextAsNumbers()
+	{
+		query().aggregateBy(DbQuery.MAX, "name", "category_id");
+	}
+
+	private DbQuery query()
+	{
+		return DbQuery.create(RuntimeEnvironment.application.getContentResolver(),
+				TestDbContentProvider.ITEM.getCollectionUri());
+	}
+
+	private void insertCategory(String name)
+	{
+		ContentValues values = new ContentValues();
+		values.put("name", name);
+
+		mProvider.insert(TestDbContentProvider.CATEGORY.getCollectionUri(), values);
+	}
+
+	private void insert(String name, int quantity, long categoryId)
+	{
+		ContentValues values = new ContentValues();
+		values.put("name", name);
+		values.put("quantity", quantity);
+		values.put("category_id", categoryId);
+
+		mProvider.insert(TestDbContentProvider.ITEM.getCollectionUri(), values);
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DbWriterTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class DbWriterTest
+{
+	private static final int THREADS = 8;
+	private static final int WRITES_PER_THREAD = 100;
+	private static final int MAX_GROUP_SIZE = 256;
+
+	// Long enough for all threads to queue their writes before a group is applied
+	private static final long WINDOW_MILLIS = 2000;
+	private static final long BENCHMARK_WINDOW_MILLIS = 5;
+
+	private BatchCountingProvider mProvider;
+	private DbWriter mWriter;
+
+	@Before
+	public void setUp()
+	{
+		mProvider = TestDbContentProvider.register(new BatchCountingProvider());
+		mWriter = new DbWriter(RuntimeEnvironment.application.getContentResolver(), TestDbContentProvider.AUTHORITY,
+				WINDOW_MILLIS);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mWriter.shutdown();
+		mProvider.shutdown();
+	}
+
+	@Test
+	public void groupsConcurrentWrites() throws Exception
+	{
+		List<Future<Long>> futures = writeConcurrently(new Write()
+		{
+			@Override
+			public Future<Long> write(TestItem item)
+			{
+				return mWriter.insert(item);
+			}
+		});
+
+		int writes = THREADS * WRITES_PER_THREAD;
+		int maxBatches = (writes + MAX_GROUP_SIZE - 1) / MAX_GROUP_SIZE;
+
+		assertEquals(writes, futures.size());
+		assertTrue("Applied in " + mProvider.batches.get() + " batches", mProvider.batches.get() <= maxBatches);
+		assertEquals(writes, query().count());
+	}
+
+	@Test
+	public void benchmarkContendedWrites() throws Exception
+	{
+		final ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+
+		long startTime = System.nanoTime();
+		writeConcurrently(new Write()
+		{
+			@Override
+			public Future<Long> write(TestItem item)
+			{
+				// Every thread writes in its own transaction, waiting for the database lock
+				DbUtil.insert(resolver, item);
+				return null;
+			}
+		});
+		long directNanos = (System.nanoTime() - startTime) / (THREADS * WRITES_PER_THREAD);
+
+		// A short window, so the measurement doesn't include waiting for the writes of a group
+		final DbWriter writer = new DbWriter(resolver, TestDbContentProvider.AUTHORITY, BENCHMARK_WINDOW_MILLIS);
+
+		try
+		{
+			startTime = System.nanoTime();
+			writeConcurrently(new Write()
+			{
+				@Override
+				public Future<Long> write(TestItem item)
+				{
+					return writer.insert(item);
+				}
+			});
+			long groupedNanos = (System.nanoTime() - startTime) / (THREADS * WRITES_PER_THREAD);
+
+			Benchmark.report("contended inserts (" + THREADS + " threads)", "direct", directNanos, "group commit",
+					groupedNanos);
+		}
+		finally
+		{
+			writer.shutdown();
+		}
+
+		assertEquals(2 * THREADS * WRITES_PER_THREAD, query().count());
+	}
+
+	@Test
+	public void failsOnlyTheFailingWrite() throws Exception
+	{
+		List<Future<Long>> futures = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++)
+		{
+			futures.add(mWriter.insert(TestDbContentProvider.ITEM.withName(0, "item " + i)));
+		}
+
+		// Violates the foreign key, which fails the whole batch
+		ContentValues values = new ContentValues();
+		values.put("name", "orphan");
+		values.put("category_id", 42);
+		Future<Long> failing = mWriter.insert(new TestItem(TestDbContentProvider.AUTHORITY, "items",
+				TestDbContentProvider.ITEM.getDatabaseTable(), 0, values));
+
+		for (int i = 10; i < 20; i++)
+		{
+			futures.add(mWriter.insert(TestDbContentProvider.ITEM.withName(0, "item " + i)));
+		}
+
+		try
+		{
+			failing.get(10, TimeUnit.SECONDS);
+			fail("The write violating the foreign key was applied");
+		}
+		catch (ExecutionException e)
+		{
+			// Expected
+		}
+
+		for (Future<Long> future : futures)
+		{
+			assertTrue(future.get(10, TimeUnit.SECONDS) > 0);
+		}
+
+		assertEquals(20, query().count());
+	}
+
+	/**
+	 * Runs the writes of all threads at the same time and waits until they have been applied.
+	 * @return Futures of the writes, if the write returns them.
+	 */
+	private static List<Future<Long>> writeConcurrently(final Write write) throws Exception
+	{
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Long>> futures = new ArrayList<>();
+		Thread[] threads = new Thread[THREADS];
+
+		for (int i = 0; i < THREADS; i++)
+		{
+			final int thread = i;
+
+			threads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+
+					for (int index = 0; index < WRITES_PER_THREAD; index++)
+					{
+						Future<Long> future = write.write(TestDbContentProvider.ITEM.withName(0,
+								"item " + thread + "/" + index));
+
+						if (future != null)
+						{
+							synchronized (futures)
+							{
+								futures.add(future);
+							}
+						}
+					}
+				}
+			});
+
+			threads[i].start();
+		}
+
+		start.countDown();
+
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		for (Future<Long> future : futures)
+		{
+			assertTrue(future.get(10, TimeUnit.SECONDS) > 0);
+		}
+
+		return futures;
+	}
+
+	private static DbQuery query()
+	{
+		return DbQuery.create(RuntimeEnvironment.application.getContentResolver(),
+				TestDbContentProvider.ITEM.getCollectionUri());
+	}
+
+	private interface Write
+	{
+		/**
+		 * Writes the item, returning the future of the write if it is asynchronous.
+		 */
+		Future<Long> write(TestItem item);
+	}
+
+	/**
+	 * Test provider counting the batches applied by the writer.
+	 */
+	private static class BatchCountingProvider extends TestDbContentProvider
+	{
+		public final AtomicInteger batches = new AtomicInteger();
+
+		public BatchCountingProvider()
+		{
+			super(0, DatabaseProfile.create());
+		}
+
+		@Override
+		public @NonNull ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+				throws OperationApplicationException
+		{
+			batches.incrementAndGet();
+			return super.applyBatch(operations);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "DeltaListModelTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class DeltaListModelTest
+{
+	private static final CursorMapper<String> NAME_MAPPER = new CursorMapper<String>("name")
+	{
+		@Override
+		protected String mapRow(Cursor cursor, int[] columnIndices)
+		{
+			return cursor.getString(columnIndices[0]);
+		}
+	};
+
+	private TestDbContentProvider mProvider;
+	private DeltaListModel<String> mModel;
+
+	@Before
+	public void setUp()
+	{
+		mProvider = TestDbContentProvider.create();
+
+		// The list contains the items in stock
+		DbQuery query = DbQuery.create(RuntimeEnvironment.application.getContentResolver(),
+				TestDbContentProvider.ITEM.getCollectionUri()).select("quantity > ?", 0).orderBy("_id");
+		mModel = new DeltaListModel<>(query, "_id", NAME_MAPPER);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mProvider.shutdown();
+	}
+
+	@Test
+	public void appliesInsertsAndDeletes()
+	{
+		long apple = insert("apple", 1);
+		long pear = insert("pear", 1);
+		mModel.load();
+		assertEquals(Arrays.asList("apple", "pear"), mModel.getItems());
+
+		long plum = insert("plum", 2);
+		delete(apple);
+
+		ChangeSet changeSet = new ChangeSet(TestDbContentProvider.ITEM.getCollectionUri());
+		changeSet.add(ChangeSet.OPERATION_INSERT, new long[] { plum });
+		changeSet.add(ChangeSet.OPERATION_DELETE, new long[] { apple });
+
+		assertTrue(mModel.apply(changeSet));
+		assertEquals(Arrays.asList("pear", "plum"), mModel.getItems());
+
+		// Updated items keep their position
+		update(pear, "nashi", 3);
+		assertTrue(mModel.apply(changes(ChangeSet.OPERATION_UPDATE, pear)));
+		assertEquals(Arrays.asList("nashi", "plum"), mModel.getItems());
+	}
+
+	@Test
+	public void removesUpdatedItemsThatNoLongerMatch()
+	{
+		long apple = insert("apple", 1);
+		long pear = insert("pear", 1);
+		mModel.load();
+
+		// Out of stock, no longer selected by the query
+		update(apple, "apple", 0);
+
+		assertTrue(mModel.apply(changes(ChangeSet.OPERATION_UPDATE, apple)));
+		assertEquals(Arrays.asList("pear"), mModel.getItems());
+		assertFalse(mModel.apply(changes(ChangeSet.OPERATION_UPDATE, pear)));
+	}
+
+	@Test
+	public void reportsChangesOutsideTheListAsUnchanged()
+	{
+		insert("apple", 1);
+		mModel.load();
+
+		long empty = insert("empty", 0);
+
+		assertFalse(mModel.apply(changes(ChangeSet.OPERATION_INSERT, empty)));
+		assertFalse(mModel.apply(changes(ChangeSet.OPERATION_DELETE, 42)));
+		assertEquals(Arrays.asList("apple"), mModel.getItems());
+	}
+
+	@Test
+	public void reloadsForIncompleteChangeSets()
+	{
+		insert("apple", 1);
+		mModel.load();
+		insert("pear", 1);
+
+		assertTrue(mModel.apply(ChangeSet.parse(TestDbContentProvider.ITEM.getCollectionUri())));
+		assertEquals(Arrays.asList("apple", "pear"), mModel.getItems());
+	}
+
+	private static ChangeSet changes(int operation, long id)
+	{
+		ChangeSet changeSet = new ChangeSet(TestDbContentProvider.ITEM.getCollectionUri());
+		changeSet.add(operation, new long[] { id });
+
+		return changeSet;
+	}
+
+	private long insert(String name, int quantity)
+	{
+		ContentValues values = new ContentValues();
+		values.put("name", name);
+		values.put("quantity", quantity);
+
+		return ContentUris.parseId(mProvider.insert(TestDbContentProvider.ITEM.getCollectionUri(), values));
+	}
+
+	private void update(long id, String name, int quantity)
+	{
+		ContentValues values = new ContentValues();
+		values.put("name", name);
+		values.put("quantity", quantity);
+
+		mProvider.update(ContentUris.withAppendedId(TestDbContentProvider.ITEM.getCollectionUri(), id), values, null,
+				null);
+	}
+
+	private void delete(long id)
+	{
+		mProvider.delete(ContentUris.withAppendedId(TestDbContentProvider.ITEM.getCollectionUri(), id), null, null);
+	}
+}
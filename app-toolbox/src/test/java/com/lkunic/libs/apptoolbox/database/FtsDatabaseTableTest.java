@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "FtsDatabaseTableTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class FtsDatabaseTableTest
+{
+	private final FtsDatabaseTable mTable = new FtsDatabaseTable()
+	{
+		@Override
+		protected String[] getSearchableColumns()
+		{
+			return new String[] { "name" };
+		}
+
+		@Override
+		protected String getTableName()
+		{
+			return "items";
+		}
+
+		@Override
+		protected String getSqlCreateStatement()
+		{
+			return "CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, quantity INTEGER)";
+		}
+	};
+
+	private SQLiteDatabase mDatabase;
+
+	@Before
+	public void setUp()
+	{
+		mDatabase = SQLiteDatabase.create(null);
+		mTable.createTable(mDatabase);
+
+		mDatabase.execSQL("INSERT INTO items (_id, name, quantity) VALUES (1, 'apple', 1)");
+	}
+
+	@After
+	public void tearDown()
+	{
+		mDatabase.close();
+	}
+
+	@Test
+	public void reindexesUpdatedSearchableColumns()
+	{
+		mDatabase.execSQL("UPDATE items SET name = 'pear' WHERE _id = 1");
+
+		assertEquals(0, countMatches("apple"));
+		assertEquals(1, countMatches("pear"));
+	}
+
+	@Test
+	public void followsUpdatedIds()
+	{
+		mDatabase.execSQL("UPDATE items SET _id = 2 WHERE _id = 1");
+
+		assertEquals(2, DatabaseUtils.longForQuery(mDatabase,
+				"SELECT docid FROM items_fts WHERE items_fts MATCH 'apple'", null));
+	}
+
+	@Test
+	public void skipsTheIndexForOtherColumns()
+	{
+		long changes = totalChanges();
+		mDatabase.execSQL("UPDATE items SET quantity = 2 WHERE _id = 1");
+
+		// Only the content row changed, the triggers didn't delete and insert the index row
+		assertEquals(changes + 1, totalChanges());
+		assertEquals(1, countMatches("apple"));
+	}
+
+	@Test
+	public void replacesTheTriggers()
+	{
+		mTable.createSearchTriggers(mDatabase);
+		mDatabase.execSQL("UPDATE items SET name = 'pear' WHERE _id = 1");
+
+		assertEquals(1, countMatches("pear"));
+		assertEquals(4, DatabaseUtils.longForQuery(mDatabase,
+				"SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND tbl_name = 'items'", null));
+	}
+
+	private long countMatches(String query)
+	{
+		return DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM items_fts WHERE items_fts MATCH ?",
+				new String[] { query });
+	}
+
+	private long totalChanges()
+	{
+		return DatabaseUtils.longForQuery(mDatabase, "SELECT total_changes()", null);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "LocalDbAccessBenchmarkTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares operations through LocalDbAccess with the same operations through the content resolver.
+ *
+ * This does not measure the overhead LocalDbAccess avoids on a device. Robolectric's content resolver calls the
+ * registered provider in-process, without the provider lookup and reference counting, the Binder transaction and the
+ * CursorWrapperInner of the platform resolver. The measured difference only covers building and parsing the item uri
+ * and the dispatch of the shadow resolver. Quantifying the real saving needs an instrumentation test on a device.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class LocalDbAccessBenchmarkTest
+{
+	private static final int ITERATIONS = 1000;
+
+	private static final String[] PROJECTION = { "_id", "name" };
+
+	private TestDbContentProvider mProvider;
+	private ContentResolver mResolver;
+	private LocalDbAccess mLocalAccess;
+
+	@Before
+	public void setUp()
+	{
+		mProvider = TestDbContentProvider.create();
+		mResolver = RuntimeEnvironment.application.getContentResolver();
+		mLocalAccess = new LocalDbAccess(mProvider);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mProvider.shutdown();
+	}
+
+	@Test
+	public void matchesTheResolverResults()
+	{
+		TestItem item = TestDbContentProvider.ITEM.withName(0, "local");
+		long id = mLocalAccess.insert(item);
+
+		assertTrue(id > 0);
+		assertEquals(1, mLocalAccess.update(TestDbContentProvider.ITEM.withName(id, "updated")));
+		assertTrue(mLocalAccess.exists(TestDbContentProvider.ITEM.getCollectionUri(), id));
+
+		Cursor cursor = mResolver.query(TestDbContentProvider.ITEM.withName(id, null).getItemUri(), PROJECTION,
+				null, null, null);
+
+		try
+		{
+			assertTrue(cursor.moveToFirst());
+			assertEquals("updated", cursor.getString(1));
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void benchmarkInsert()
+	{
+		final TestItem item = TestDbContentProvider.ITEM.withName(0, "item");
+
+		long resolverNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ContentUris.parseId(mResolver.insert(item.getCollectionUri(), item.getContentValues()));
+			}
+		});
+
+		long localNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				mLocalAccess.insert(item);
+			}
+		});
+
+		Benchmark.report("insert", "resolver", resolverNanos, "local", localNanos);
+		assertEquals(2 * (Benchmark.WARMUP_ITERATIONS + ITERATIONS),
+				DbQuery.create(mLocalAccess, TestDbContentProvider.ITEM.getCollectionUri()).count());
+	}
+
+	@Test
+	public void benchmarkItemQuery()
+	{
+		final Uri itemUri = ContentUris.withAppendedId(TestDbContentProvider.ITEM.getCollectionUri(),
+				mLocalAccess.insert(TestDbContentProvider.ITEM.withName(0, "item")));
+
+		long resolverNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readName(mResolver.query(itemUri, PROJECTION, null, null, null));
+			}
+		});
+
+		long localNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readName(mLocalAccess.query(itemUri, PROJECTION, null, null, null));
+			}
+		});
+
+		Benchmark.report("item query", "resolver", resolverNanos, "local", localNanos);
+	}
+
+	private static void readName(Cursor cursor)
+	{
+		try
+		{
+			assertTrue(cursor.moveToFirst());
+			assertEquals("item", cursor.getString(1));
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "NotificationCoalescerTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.net.Uri;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class NotificationCoalescerTest
+{
+	private static final Uri ITEMS = Uri.parse("content://com.lkunic.libs.apptoolbox.test/items");
+	private static final Uri CATEGORIES = Uri.parse("content://com.lkunic.libs.apptoolbox.test/categories");
+
+	@Test
+	public void deliversImmediatelyWithoutWindow()
+	{
+		NotificationCoalescer coalescer = createCoalescer(0);
+
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_INSERT, 1);
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_INSERT, 2);
+
+		assertEquals(2, coalescer.getRawNotificationCount());
+		assertEquals(2, coalescer.getDeliveredNotificationCount());
+	}
+
+	@Test
+	public void mergesNotificationsWithinTheWindow()
+	{
+		NotificationCoalescer coalescer = createCoalescer(1000);
+
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_INSERT, 1);
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_UPDATE, 2);
+		coalescer.notifyChange(CATEGORIES);
+		assertEquals(0, coalescer.getDeliveredNotificationCount());
+
+		// One notification per collection uri
+		coalescer.flush();
+		assertEquals(3, coalescer.getRawNotificationCount());
+		assertEquals(2, coalescer.getDeliveredNotificationCount());
+	}
+
+	@Test
+	public void deliversCommittedBatchesOnce()
+	{
+		NotificationCoalescer coalescer = createCoalescer(0);
+
+		coalescer.beginBatch();
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_INSERT, 1);
+
+		// Nested batches are delivered by the outermost one
+		coalescer.beginBatch();
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_DELETE, 2);
+		coalescer.endBatch(true);
+		assertEquals(0, coalescer.getDeliveredNotificationCount());
+
+		coalescer.endBatch(true);
+		assertEquals(1, coalescer.getDeliveredNotificationCount());
+	}
+
+	@Test
+	public void dropsRolledBackBatches()
+	{
+		NotificationCoalescer coalescer = createCoalescer(0);
+
+		coalescer.beginBatch();
+		coalescer.notifyChange(ITEMS, ChangeSet.OPERATION_INSERT, 1);
+		coalescer.beginBatch();
+		coalescer.endBatch(false);
+		coalescer.endBatch(true);
+
+		assertEquals(0, coalescer.getDeliveredNotificationCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsUnmatchedBatchEnds()
+	{
+		createCoalescer(0).endBatch(true);
+	}
+
+	private static NotificationCoalescer createCoalescer(long windowMillis)
+	{
+		return new NotificationCoalescer(RuntimeEnvironment.application.getContentResolver(), windowMillis);
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "QueryObserverTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class QueryObserverTest
+{
+	private static final String[] COLUMNS = { "a", "b" };
+
+	@Test
+	public void comparesResultValues()
+	{
+		assertEquals(snapshot(COLUMNS, new Object[] { 1L, "x" }, new Object[] { 2L, null }),
+				snapshot(COLUMNS, new Object[] { 1L, "x" }, new Object[] { 2L, null }));
+
+		assertFalse(snapshot(COLUMNS, new Object[] { 1L, "x" }).equals(snapshot(COLUMNS, new Object[] { 1L, "y" })));
+		assertFalse(snapshot(COLUMNS, new Object[] { 1L, 2L }).equals(snapshot(COLUMNS, new Object[] { 1L, 2.0 })));
+		assertFalse(snapshot(COLUMNS, new Object[] { 1L, 2L }).equals(
+				snapshot(new String[] { "a", "c" }, new Object[] { 1L, 2L })));
+		assertTrue(snapshot(COLUMNS, new Object[] { 1L, new byte[] { 1, 2 } }).equals(
+				snapshot(COLUMNS, new Object[] { 1L, new byte[] { 1, 2 } })));
+	}
+
+	@Test
+	public void detectsHashCollisions()
+	{
+		// The type and value of each column are hashed, so a value of the first column counts 31 * 31 times as much as
+		// one of the second column, and both rows have the same hash
+		QueryObserver.ResultSnapshot first = snapshot(COLUMNS, new Object[] { 0L, 961L });
+		QueryObserver.ResultSnapshot second = snapshot(COLUMNS, new Object[] { 1L, 0L });
+
+		assertEquals(first.hashCode(), second.hashCode());
+		assertFalse(first.equals(second));
+	}
+
+	private static QueryObserver.ResultSnapshot snapshot(String[] columns, Object[]... rows)
+	{
+		MatrixCursor cursor = new MatrixCursor(columns);
+
+		for (Object[] row : rows)
+		{
+			cursor.addRow(row);
+		}
+
+		try
+		{
+			return new QueryObserver.ResultSnapshot(cursor);
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "ReaderPoolTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ReaderPoolTest
+{
+	private static final int ROW_COUNT = 5000;
+	private static final int QUERIES_PER_READER = 200;
+
+	private File mFile;
+
+	@Before
+	public void setUp()
+	{
+		mFile = RuntimeEnvironment.application.getDatabasePath("readers.db");
+		mFile.getParentFile().mkdirs();
+
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+
+		try
+		{
+			db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT)");
+			db.beginTransaction();
+
+			try
+			{
+				// About 5 MB of rows, more than one cursor window
+				StringBuilder name = new StringBuilder();
+				for (int i = 0; i < 1000; i++)
+				{
+					name.append('x');
+				}
+
+				ContentValues values = new ContentValues();
+				values.put("name", name.toString());
+
+				for (int i = 0; i < ROW_COUNT; i++)
+				{
+					db.insert("items", null, values);
+				}
+
+				db.setTransactionSuccessful();
+			}
+			finally
+			{
+				db.endTransaction();
+			}
+		}
+		finally
+		{
+			db.close();
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		SQLiteDatabase.deleteDatabase(mFile);
+	}
+
+	@Test
+	public void keepsConnectionsOpenForTheirCursors()
+	{
+		ReaderPool pool = new ReaderPool(mFile.getPath(), 2, DatabaseProfile.create());
+
+		SQLiteDatabase connection = pool.acquire();
+		Cursor cursor = pool.wrapCursor(connection, connection.rawQuery("SELECT _id, name FROM items", null));
+		assertEquals(ROW_COUNT, cursor.getCount());
+
+		pool.release(connection);
+		pool.close();
+		assertNull(pool.acquire());
+
+		// Reading past the first window needs the connection
+		assertTrue(connection.isOpen());
+		assertTrue(cursor.moveToLast());
+		assertEquals(ROW_COUNT, cursor.getLong(0));
+
+		cursor.close();
+		assertFalse(connection.isOpen());
+	}
+
+	@Test
+	public void closesIdleConnections()
+	{
+		ReaderPool pool = new ReaderPool(mFile.getPath(), 2, DatabaseProfile.create());
+
+		SQLiteDatabase connection = pool.acquire();
+		Cursor cursor = pool.wrapCursor(connection, connection.rawQuery("SELECT _id FROM items", null));
+		pool.release(connection);
+
+		// Closing the cursor keeps the connection in the pool
+		cursor.close();
+		assertTrue(connection.isOpen());
+
+		pool.close();
+		assertFalse(connection.isOpen());
+	}
+
+	@Test
+	public void stressReaderThroughput() throws InterruptedException
+	{
+		long baselineNanos = 0;
+		Object[] variants = new Object[8];
+
+		for (int readers = 1, i = 0; readers <= 8; readers *= 2, i += 2)
+		{
+			long nanos = runReaders(readers);
+
+			if (readers == 1)
+			{
+				baselineNanos = nanos;
+			}
+
+			variants[i] = readers + " readers";
+			variants[i + 1] = nanos;
+		}
+
+		assertTrue(baselineNanos > 0);
+		Benchmark.report("pooled queries", variants);
+	}
+
+	/**
+	 * Runs the queries on the given number of threads sharing a pool of the same size, closing the pool while the
+	 * last cursors are still open.
+	 * @return Average duration of one query in nanoseconds.
+	 */
+	private long runReaders(int readers) throws InterruptedException
+	{
+		final ReaderPool pool = new ReaderPool(mFile.getPath(), readers, DatabaseProfile.create());
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch lastQueries = new CountDownLatch(readers);
+		final CountDownLatch poolClosed = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread[] threads = new Thread[readers];
+
+		for (int i = 0; i < readers; i++)
+		{
+			threads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+
+						for (int query = 0; query < QUERIES_PER_READER; query++)
+						{
+							Cursor cursor = query(pool, query);
+
+							try
+							{
+								assertTrue(cursor.moveToFirst());
+								assertEquals(query % ROW_COUNT + 1, cursor.getLong(0));
+							}
+							finally
+							{
+								cursor.close();
+							}
+						}
+
+						// Read the whole table after the pool has been closed
+						Cursor cursor = query(pool, -1);
+						lastQueries.countDown();
+						poolClosed.await();
+
+						try
+						{
+							assertEquals(ROW_COUNT, cursor.getCount());
+							assertTrue(cursor.moveToLast());
+						}
+						finally
+						{
+							cursor.close();
+						}
+					}
+					catch (Throwable e)
+					{
+						failure.compareAndSet(null, e);
+						lastQueries.countDown();
+					}
+				}
+			});
+
+			threads[i].start();
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		lastQueries.await();
+		long nanos = (System.nanoTime() - startTime) / (readers * QUERIES_PER_READER);
+
+		pool.close();
+		poolClosed.countDown();
+
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		if (failure.get() != null)
+		{
+			throw new AssertionError(failure.get());
+		}
+
+		return nanos;
+	}
+
+	/**
+	 * Queries the row with the given index, or all rows if it is negative, the way the provider uses the pool.
+	 */
+	private static Cursor query(ReaderPool pool, int index)
+	{
+		SQLiteDatabase connection = pool.acquire();
+		assertNotNull(connection);
+
+		try
+		{
+			Cursor cursor = index >= 0 ?
+					connection.rawQuery("SELECT _id, name FROM items WHERE _id = ?",
+							new String[] { String.valueOf(index % ROW_COUNT + 1) }) :
+					connection.rawQuery("SELECT _id, name FROM items", null);
+
+			cursor.getCount();
+			return pool.wrapCursor(connection, cursor);
+		}
+		finally
+		{
+			pool.release(connection);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "RowCacheTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class RowCacheTest
+{
+	private static final String[] NAME = { "name" };
+	private static final String[] NAME_AND_ID = { "name", "_id" };
+
+	@Test
+	public void invalidatesAllProjectionsOfAnItem()
+	{
+		RowCache cache = new RowCache(10);
+		put(cache, "items", 1, NAME);
+		put(cache, "items", 1, NAME_AND_ID);
+		put(cache, "items", 2, NAME);
+
+		cache.invalidateItem("items", 1);
+
+		assertNull(cache.get(RowCache.buildKey("items", 1, NAME)));
+		assertNull(cache.get(RowCache.buildKey("items", 1, NAME_AND_ID)));
+		assertNotNull(cache.get(RowCache.buildKey("items", 2, NAME)));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void invalidatesOnlyTheGivenTable()
+	{
+		RowCache cache = new RowCache(10);
+		put(cache, "items", 1, NAME);
+		put(cache, "items", 2, NAME);
+		put(cache, "categories", 1, NAME);
+
+		cache.invalidateTable("items");
+
+		assertNull(cache.get(RowCache.buildKey("items", 1, NAME)));
+		assertNull(cache.get(RowCache.buildKey("items", 2, NAME)));
+		assertNotNull(cache.get(RowCache.buildKey("categories", 1, NAME)));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedRows()
+	{
+		RowCache cache = new RowCache(2);
+		put(cache, "items", 1, NAME);
+		put(cache, "items", 2, NAME);
+
+		// Item 1 becomes the most recently used row
+		assertNotNull(cache.get(RowCache.buildKey("items", 1, NAME)));
+		put(cache, "items", 3, NAME);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get(RowCache.buildKey("items", 2, NAME)));
+
+		// Invalidating evicted and cached items keeps the cache consistent
+		cache.invalidateItem("items", 2);
+		cache.invalidateItem("items", 3);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get(RowCache.buildKey("items", 1, NAME)));
+	}
+
+	@Test
+	public void skipsRowsReadBeforeAnInvalidation()
+	{
+		RowCache cache = new RowCache(10);
+		long generation = cache.getGeneration("items");
+
+		// A write finished while the row was being read
+		cache.invalidateItem("items", 1);
+		cache.put(RowCache.buildKey("items", 1, NAME), "items", 1, generation, row("old"));
+
+		assertNull(cache.get(RowCache.buildKey("items", 1, NAME)));
+	}
+
+	@Test
+	public void invalidatesRowsChangedByForeignKeyActions()
+	{
+		TestDbContentProvider provider = TestDbContentProvider.create(10, DatabaseProfile.create());
+
+		try
+		{
+			ContentValues category = new ContentValues();
+			category.put("name", "category");
+			long categoryId = ContentUris.parseId(provider.insert(TestDbContentProvider.CATEGORY.getCollectionUri(),
+					category));
+
+			ContentValues item = new ContentValues();
+			item.put("name", "item");
+			item.put("category_id", categoryId);
+			long itemId = ContentUris.parseId(provider.insert(TestDbContentProvider.ITEM.getCollectionUri(), item));
+
+			// Cache the item row
+			assertEquals(1, count(provider.query(itemUri(itemId), NAME, null, null, null)));
+			assertEquals(1, count(provider.query(itemUri(itemId), NAME, null, null, null)));
+			assertEquals(1, provider.getRowCache().getHitCount());
+
+			// Deleting the category deletes the item through ON DELETE CASCADE
+			provider.delete(ContentUris.withAppendedId(TestDbContentProvider.CATEGORY.getCollectionUri(), categoryId),
+					null, null);
+
+			assertEquals(0, count(provider.query(itemUri(itemId), NAME, null, null, null)));
+		}
+		finally
+		{
+			provider.shutdown();
+		}
+	}
+
+	private static void put(RowCache cache, String tableName, long id, String[] projection)
+	{
+		cache.put(RowCache.buildKey(tableName, id, projection), tableName, id, cache.getGeneration(tableName),
+				row("name " + id));
+	}
+
+	private static Cursor row(String name)
+	{
+		MatrixCursor cursor = new MatrixCursor(NAME);
+		cursor.addRow(new Object[] { name });
+
+		return cursor;
+	}
+
+	private static Uri itemUri(long id)
+	{
+		return ContentUris.withAppendedId(TestDbContentProvider.ITEM.getCollectionUri(), id);
+	}
+
+	private static int count(Cursor cursor)
+	{
+		try
+		{
+			return cursor.getCount();
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "SnapshotTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+import com.lkunic.libs.apptoolbox.exceptions.DatabaseProviderException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class SnapshotTest
+{
+	private TestDbContentProvider mProvider;
+	private ContentResolver mResolver;
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		mProvider = TestDbContentProvider.create();
+		mResolver = RuntimeEnvironment.application.getContentResolver();
+		mFile = File.createTempFile("snapshot", ".bin");
+
+		for (int i = 0; i < 10; i++)
+		{
+			ContentValues values = new ContentValues();
+			values.put("name", "item " + i);
+			mProvider.insert(TestDbContentProvider.ITEM.getCollectionUri(), values);
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		mProvider.shutdown();
+		mFile.delete();
+	}
+
+	@Test
+	public void exportsAndImportsThroughFileDescriptors()
+	{
+		assertEquals(10, DbUtil.exportSnapshot(mResolver, TestDbContentProvider.AUTHORITY, mFile));
+
+		mProvider.delete(TestDbContentProvider.ITEM.getCollectionUri(), null, null);
+		assertEquals(10, DbUtil.importSnapshot(mResolver, TestDbContentProvider.AUTHORITY, mFile));
+
+		assertEquals(10, DbQuery.create(mResolver, TestDbContentProvider.ITEM.getCollectionUri()).count());
+	}
+
+	@Test
+	public void reimportKeepsReferencingRows()
+	{
+		ContentValues category = new ContentValues();
+		category.put("name", "category");
+		long categoryId = ContentUris.parseId(mProvider.insert(TestDbContentProvider.CATEGORY.getCollectionUri(),
+				category));
+
+		DbUtil.exportSnapshot(mResolver, TestDbContentProvider.AUTHORITY, mFile);
+
+		// Added locally after the export, deleted by ON DELETE CASCADE if the category row were replaced
+		ContentValues item = new ContentValues();
+		item.put("name", "local item");
+		item.put("category_id", categoryId);
+		mProvider.insert(TestDbContentProvider.ITEM.getCollectionUri(), item);
+
+		category.put("name", "renamed");
+		mProvider.update(ContentUris.withAppendedId(TestDbContentProvider.CATEGORY.getCollectionUri(), categoryId),
+				category, null, null);
+
+		assertEquals(11, DbUtil.importSnapshot(mResolver, TestDbContentProvider.AUTHORITY, mFile));
+
+		assertEquals(11, DbQuery.create(mResolver, TestDbContentProvider.ITEM.getCollectionUri()).count());
+		assertEquals("category", DbQuery.create(mResolver, TestDbContentProvider.CATEGORY.getCollectionUri())
+				.aggregateText(DbQuery.MAX, "name"));
+	}
+
+	@Test(expected = DatabaseProviderException.class)
+	public void rejectsExportPaths()
+	{
+		Bundle extras = new Bundle();
+		extras.putString(DbContentProvider.EXTRA_FILE, mFile.getAbsolutePath());
+
+		mProvider.call(DbContentProvider.METHOD_EXPORT_SNAPSHOT, null, extras);
+	}
+
+	@Test(expected = DatabaseProviderException.class)
+	public void rejectsImportPaths()
+	{
+		Bundle extras = new Bundle();
+		extras.putString(DbContentProvider.EXTRA_FILE, mFile.getAbsolutePath());
+
+		mProvider.call(DbContentProvider.METHOD_IMPORT_SNAPSHOT, null, extras);
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "StatementCacheTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class StatementCacheTest
+{
+	private static final String SQL = "DELETE FROM items WHERE _id=?";
+
+	private StatementCache mCache;
+	private SQLiteDatabase mDatabase;
+
+	@Before
+	public void setUp()
+	{
+		mCache = new StatementCache(2);
+		mDatabase = openDatabase();
+	}
+
+	@After
+	public void tearDown()
+	{
+		mCache.clear();
+		mDatabase.close();
+	}
+
+	@Test
+	public void reusesReleasedStatements()
+	{
+		SQLiteStatement statement = mCache.acquire(mDatabase, SQL);
+		mCache.release(SQL, statement);
+
+		assertSame(statement, mCache.acquire(mDatabase, SQL));
+	}
+
+	@Test
+	public void concurrentCallersGetTheirOwnStatement()
+	{
+		SQLiteStatement first = mCache.acquire(mDatabase, SQL);
+		SQLiteStatement second = mCache.acquire(mDatabase, SQL);
+
+		assertNotSame(first, second);
+
+		mCache.release(SQL, first);
+		mCache.release(SQL, second);
+
+		// Only the first returned instance is kept
+		assertSame(first, mCache.acquire(mDatabase, SQL));
+	}
+
+	@Test
+	public void dropsStatementsReleasedAfterClear()
+	{
+		SQLiteStatement statement = mCache.acquire(mDatabase, SQL);
+
+		// The helper clears the cache and closes the connection while the statement is in use
+		mCache.clear();
+		mDatabase.close();
+		mCache.release(SQL, statement);
+
+		mDatabase = openDatabase();
+		SQLiteStatement reopened = mCache.acquire(mDatabase, SQL);
+
+		assertNotSame(statement, reopened);
+
+		reopened.bindLong(1, 1);
+		assertEquals(0, reopened.executeUpdateDelete());
+		mCache.release(SQL, reopened);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedStatements()
+	{
+		String[] sql = { SQL, "DELETE FROM items WHERE name=?", "DELETE FROM items WHERE _id>?" };
+		SQLiteStatement[] statements = new SQLiteStatement[sql.length];
+
+		for (int i = 0; i < sql.length; i++)
+		{
+			statements[i] = mCache.acquire(mDatabase, sql[i]);
+		}
+
+		for (int i = 0; i < sql.length; i++)
+		{
+			mCache.release(sql[i], statements[i]);
+		}
+
+		// The cache holds two statements, the first one was evicted
+		assertNotSame(statements[0], mCache.acquire(mDatabase, sql[0]));
+		assertSame(statements[2], mCache.acquire(mDatabase, sql[2]));
+	}
+
+	private static SQLiteDatabase openDatabase()
+	{
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		db.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT)");
+
+		return db;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TableIndexTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class TableIndexTest
+{
+	private SQLiteDatabase mDatabase;
+
+	@Before
+	public void setUp()
+	{
+		mDatabase = SQLiteDatabase.create(null);
+	}
+
+	@After
+	public void tearDown()
+	{
+		mDatabase.close();
+	}
+
+	@Test
+	public void buildsCreateStatements()
+	{
+		assertEquals("CREATE UNIQUE INDEX declared_items_code ON items (code)",
+				TableIndex.create("items_code", "code").unique().buildCreateSql("items"));
+		assertEquals("CREATE INDEX declared_items_name ON items (name, price) WHERE price > 0",
+				TableIndex.create("items_name", "name").covering("price").where("price > 0").buildCreateSql("items"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsCoveringUniqueIndexes()
+	{
+		TableIndex.create("items_code", "code").unique().covering("name");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsUniqueCoveringIndexes()
+	{
+		TableIndex.create("items_code", "code").covering("name").unique();
+	}
+
+	@Test
+	public void updatesOnlyDeclaredIndexes()
+	{
+		TestTable version1 = new TestTable("items", "CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, " +
+				"code TEXT)")
+				.withIndexes(TableIndex.create("items_name", "name"), TableIndex.create("items_code", "code"));
+
+		version1.createTable(mDatabase);
+
+		// Created by a migration step, not managed by the declarations
+		mDatabase.execSQL("CREATE INDEX items_by_code_and_name ON items (code, name)");
+
+		// The name index changed and the code index is no longer declared
+		TestTable version2 = new TestTable("items", version1.getSqlCreateStatement())
+				.withIndexes(TableIndex.create("items_name", "name DESC"));
+
+		version2.updateIndexes(mDatabase);
+
+		assertEquals("CREATE INDEX declared_items_name ON items (name DESC)", getIndexSql("declared_items_name"));
+		assertNull(getIndexSql("declared_items_code"));
+		assertEquals("CREATE INDEX items_by_code_and_name ON items (code, name)",
+				getIndexSql("items_by_code_and_name"));
+	}
+
+	private String getIndexSql(String name)
+	{
+		// MAX() returns a single row, which is null if there is no such index
+		return DatabaseUtils.stringForQuery(mDatabase, "SELECT MAX(sql) FROM sqlite_master WHERE type = 'index' AND " +
+				"name = ?", new String[] { name });
+	}
+}
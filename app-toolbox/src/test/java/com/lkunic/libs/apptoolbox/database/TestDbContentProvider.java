@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TestDbContentProvider.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.pm.ProviderInfo;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+/**
+ * Content provider used by the tests, with categories and the items belonging to them. Deleting a category deletes
+ * its items.
+ */
+class TestDbContentProvider extends DbContentProvider
+{
+	static final String AUTHORITY = "com.lkunic.libs.apptoolbox.test";
+
+	static final TestItem CATEGORY = TestItem.type(AUTHORITY, "categories", TestTable.items("categories"));
+	static final TestItem ITEM = TestItem.type(AUTHORITY, "items", new TestTable("items",
+			"CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, quantity INTEGER NOT NULL DEFAULT 0, " +
+					"category_id INTEGER REFERENCES categories (_id) ON DELETE CASCADE)"));
+
+	private final int mRowCacheSize;
+	private final DatabaseProfile mProfile;
+
+	TestDbContentProvider(int rowCacheSize, DatabaseProfile profile)
+	{
+		mRowCacheSize = rowCacheSize;
+		mProfile = profile;
+	}
+
+	/**
+	 * Creates a provider and registers it with the content resolver of the test application.
+	 */
+	static TestDbContentProvider create(int rowCacheSize, DatabaseProfile profile)
+	{
+		return register(new TestDbContentProvider(rowCacheSize, profile));
+	}
+
+	static TestDbContentProvider create()
+	{
+		return create(0, DatabaseProfile.create());
+	}
+
+	/**
+	 * Registers the provider with the content resolver of the test application, e.g. a subclass observing the calls.
+	 */
+	static <T extends TestDbContentProvider> T register(T provider)
+	{
+		ProviderInfo info = new ProviderInfo();
+		info.authority = AUTHORITY;
+
+		// Calls onCreate()
+		provider.attachInfo(RuntimeEnvironment.application, info);
+		ShadowContentResolver.registerProvider(AUTHORITY, provider);
+
+		return provider;
+	}
+
+	@Override
+	protected IQueryable[] getDatabaseItemTypes()
+	{
+		return new IQueryable[] { CATEGORY, ITEM };
+	}
+
+	@Override
+	protected DatabaseProfile getDatabaseProfile()
+	{
+		return mProfile;
+	}
+
+	@Override
+	protected int getRowCacheSize()
+	{
+		return mRowCacheSize;
+	}
+
+	@Override
+	public String getAuthority()
+	{
+		return AUTHORITY;
+	}
+
+	@Override
+	public String getDatabaseName()
+	{
+		return "test.db";
+	}
+
+	@Override
+	public int getDatabaseVersion()
+	{
+		return 1;
+	}
+}
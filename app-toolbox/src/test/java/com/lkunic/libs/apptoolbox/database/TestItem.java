@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TestItem.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+/**
+ * IQueryable used by the tests, describing either an item type (without values) or a single item.
+ */
+class TestItem implements IQueryable
+{
+	private final String mAuthority;
+	private final String mUriPath;
+	private final DatabaseTable mTable;
+	private final long mId;
+	private final ContentValues mValues;
+
+	TestItem(String authority, String uriPath, DatabaseTable table, long id, ContentValues values)
+	{
+		mAuthority = authority;
+		mUriPath = uriPath;
+		mTable = table;
+		mId = id;
+		mValues = values;
+	}
+
+	/**
+	 * Creates the item type stored in the given table.
+	 */
+	static TestItem type(String authority, String uriPath, DatabaseTable table)
+	{
+		return new TestItem(authority, uriPath, table, 0, null);
+	}
+
+	/**
+	 * Creates an item of this type with the given id and name.
+	 */
+	TestItem withName(long id, String name)
+	{
+		ContentValues values = new ContentValues();
+		values.put("name", name);
+
+		return new TestItem(mAuthority, mUriPath, mTable, id, values);
+	}
+
+	@Override
+	public ContentValues getContentValues()
+	{
+		return mValues;
+	}
+
+	@Override
+	public Uri getCollectionUri()
+	{
+		return new Uri.Builder()
+				.scheme(ContentResolver.SCHEME_CONTENT)
+				.authority(mAuthority)
+				.path(mUriPath)
+				.build();
+	}
+
+	@Override
+	public Uri getItemUri()
+	{
+		return ContentUris.withAppendedId(getCollectionUri(), mId);
+	}
+
+	@Override
+	public String getUriPath()
+	{
+		return mUriPath;
+	}
+
+	@Override
+	public DatabaseTable getDatabaseTable()
+	{
+		return mTable;
+	}
+}
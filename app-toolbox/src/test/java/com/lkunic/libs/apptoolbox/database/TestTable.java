@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "TestTable.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+/**
+ * Database table used by the tests, created from a name and a create statement.
+ */
+class TestTable extends DatabaseTable
+{
+	private final String mTableName;
+	private final String mSqlCreateStatement;
+
+	private Migration[] mMigrations;
+	private TableIndex[] mIndexes = new TableIndex[0];
+
+	TestTable(String tableName, String sqlCreateStatement)
+	{
+		mTableName = tableName;
+		mSqlCreateStatement = sqlCreateStatement;
+	}
+
+	/**
+	 * Creates a table with an id and a name column.
+	 */
+	static TestTable items(String tableName)
+	{
+		return new TestTable(tableName, "CREATE TABLE " + tableName + " (_id INTEGER PRIMARY KEY, name TEXT)");
+	}
+
+	TestTable withMigrations(Migration... migrations)
+	{
+		mMigrations = migrations;
+		return this;
+	}
+
+	TestTable withIndexes(TableIndex... indexes)
+	{
+		mIndexes = indexes;
+		return this;
+	}
+
+	@Override
+	protected Migration[] getMigrations()
+	{
+		return mMigrations;
+	}
+
+	@Override
+	protected TableIndex[] getIndexes()
+	{
+		return mIndexes;
+	}
+
+	@Override
+	protected String getTableName()
+	{
+		return mTableName;
+	}
+
+	@Override
+	protected String getSqlCreateStatement()
+	{
+		return mSqlCreateStatement;
+	}
+}
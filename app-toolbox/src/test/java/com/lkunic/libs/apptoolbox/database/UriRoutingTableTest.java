@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) Luka Kunic 2015 / "UriRoutingTableTest.java"
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software to deal in the software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, provided that the licence notice is included
+ * in all copies or substantial portions of the software.
+ *
+ * Created by lkunic on 20/01/2016.
+ */
+package com.lkunic.libs.apptoolbox.database;
+
+import android.content.UriMatcher;
+import android.net.Uri;
+import android.os.Build;
+
+import com.lkunic.libs.apptoolbox.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.LOLLIPOP)
+public class UriRoutingTableTest
+{
+	private static final String AUTHORITY = "com.lkunic.libs.apptoolbox.test";
+
+	// Number of item types registered for the benchmark, and resolved uris per benchmark iteration
+	private static final int BENCHMARK_TYPES = 20;
+	private static final int ITERATIONS = 10000;
+
+	private UriRoutingTable mRoutingTable;
+	private TestItem mItems;
+	private TestItem mCategories;
+
+	@Before
+	public void setUp()
+	{
+		mItems = TestItem.type(AUTHORITY, "items", TestTable.items("items"));
+		mCategories = TestItem.type(AUTHORITY, "shop/categories", TestTable.items("categories"));
+
+		mRoutingTable = new UriRoutingTable(AUTHORITY);
+		addRoutes(mRoutingTable, mItems);
+		addRoutes(mRoutingTable, mCategories);
+
+		DbJoin join = DbJoin.create("items_with_categories", mItems)
+				.join(mCategories, "items.category_id = categories._id");
+
+		mRoutingTable.addRoutes(join.getUriPath(),
+				new UriRoute(join, "dir", uri(join.getUriPath()), false),
+				new UriRoute(join, "item", uri(join.getUriPath()), true));
+	}
+
+	@Test
+	public void resolvesCollectionUris()
+	{
+		UriRoute route = mRoutingTable.resolve(uri("items"));
+
+		assertNotNull(route);
+		assertEquals("items", route.getTableName());
+		assertFalse(route.isItem());
+		assertFalse(route.isJoin());
+
+		// Leading and trailing slashes are ignored
+		assertSame(route, mRoutingTable.resolve(Uri.parse("content://" + AUTHORITY + "/items/")));
+	}
+
+	@Test
+	public void resolvesItemUris()
+	{
+		UriRoute route = mRoutingTable.resolve(uri("items/42"));
+
+		assertNotNull(route);
+		assertEquals("items", route.getTableName());
+		assertEquals("_id", route.getIdColumn());
+		assertTrue(route.isItem());
+		assertEquals(uri("items"), route.getCollectionUri());
+	}
+
+	@Test
+	public void resolvesMultiSegmentPaths()
+	{
+		UriRoute collectionRoute = mRoutingTable.resolve(uri("shop/categories"));
+		UriRoute itemRoute = mRoutingTable.resolve(uri("shop/categories/7"));
+
+		assertNotNull(collectionRoute);
+		assertFalse(collectionRoute.isItem());
+		assertNotNull(itemRoute);
+		assertTrue(itemRoute.isItem());
+		assertEquals("categories", itemRoute.getTableName());
+
+		assertNull(mRoutingTable.resolve(uri("shop")));
+		assertNull(mRoutingTable.resolve(uri("shop/7")));
+	}
+
+	@Test
+	public void resolvesJoinUris()
+	{
+		UriRoute collectionRoute = mRoutingTable.resolve(uri("items_with_categories"));
+		UriRoute itemRoute = mRoutingTable.resolve(uri("items_with_categories/3"));
+
+		assertNotNull(collectionRoute);
+		assertTrue(collectionRoute.isJoin());
+		assertFalse(collectionRoute.isItem());
+		assertNull(collectionRoute.getTable());
+		assertEquals("items JOIN categories ON items.category_id = categories._id", collectionRoute.getTableName());
+
+		assertNotNull(itemRoute);
+		assertTrue(itemRoute.isJoin());
+		assertTrue(itemRoute.isItem());
+		assertEquals("items._id", itemRoute.getIdColumn());
+	}
+
+	@Test
+	public void rejectsNonNumericIds()
+	{
+		assertNull(mRoutingTable.resolve(uri("items/abc")));
+		assertNull(mRoutingTable.resolve(uri("items/4a")));
+		assertNull(mRoutingTable.resolve(uri("items/-4")));
+
+		// Digits of other scripts are not item ids
+		assertNull(mRoutingTable.resolve(uri("items/\u0664\u0662")));
+		assertNull(mRoutingTable.resolve(uri("items/\uff14\uff12")));
+	}
+
+	@Test
+	public void rejectsOtherUris()
+	{
+		assertNull(mRoutingTable.resolve(uri("unknown")));
+		assertNull(mRoutingTable.resolve(uri("unknown/1")));
+		assertNull(mRoutingTable.resolve(Uri.parse("content://other.authority/items")));
+		assertNull(mRoutingTable.resolve(Uri.parse("content://" + AUTHORITY)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDuplicatePaths()
+	{
+		addRoutes(mRoutingTable, TestItem.type(AUTHORITY, "/items/", TestTable.items("other")));
+	}
+
+	@Test
+	public void benchmarkResolution()
+	{
+		final UriRoutingTable routingTable = new UriRoutingTable(AUTHORITY);
+		final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+		final Uri[] uris = new Uri[BENCHMARK_TYPES * 2];
+
+		for (int i = 0; i < BENCHMARK_TYPES; i++)
+		{
+			String path = "type" + i;
+			addRoutes(routingTable, TestItem.type(AUTHORITY, path, TestTable.items("table" + i)));
+
+			// Registration and type encoding replaced by the routing table
+			uriMatcher.addURI(AUTHORITY, path, i * 10);
+			uriMatcher.addURI(AUTHORITY, path + "/#", i * 10 + 1);
+
+			uris[i * 2] = uri(path);
+			uris[i * 2 + 1] = uri(path + "/" + (i + 1000));
+		}
+
+		long matcherNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (Uri uri : uris)
+				{
+					if (uriMatcher.match(uri) == UriMatcher.NO_MATCH)
+					{
+						throw new AssertionError("Not matched: " + uri);
+					}
+				}
+			}
+		});
+
+		long routingTableNanos = Benchmark.measure(ITERATIONS, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (Uri uri : uris)
+				{
+					if (routingTable.resolve(uri) == null)
+					{
+						throw new AssertionError("Not resolved: " + uri);
+					}
+				}
+			}
+		});
+
+		Benchmark.report("resolve " + uris.length + " uris", "UriMatcher", matcherNanos, "UriRoutingTable",
+				routingTableNanos);
+	}
+
+	private static void addRoutes(UriRoutingTable routingTable, TestItem itemType)
+	{
+		DatabaseTable table = itemType.getDatabaseTable();
+
+		routingTable.addRoutes(itemType.getUriPath(),
+				new UriRoute(table, "dir", itemType.getCollectionUri(), false),
+				new UriRoute(table, "item", itemType.getCollectionUri(), true));
+	}
+
+	private static Uri uri(String path)
+	{
+		return Uri.parse("content://" + AUTHORITY + "/" + path);
+	}
+}